@@ -0,0 +1,140 @@
+// A long-lived node process, that runs command-line node scripts (ts-type-reader, jsnap --onlyInstrument, tscheck) without starting a new node process every time.
+// Used by NodeWorkerPool.java.
+//
+// Protocol: Every request is a line on stdin: {"id": 1, "args": ["node_modules/ts-type-reader/src/CLI.js", "--env", "es5", "foo.d.ts"]}
+// Every response is a line on stdout: {"id": 1, "stdout": "...", "stderr": "..."}, or {"id": 1, "error": "..."} if the script failed (the caller then runs it in a fresh node process instead).
+//
+// The script is run by requiring it with process.argv set to the arguments, and with the output of process.stdout/process.stderr captured.
+// Every module is required again for every request (so no state, like an option parser that read process.argv when it was loaded, is left over from the last request),
+// except the TypeScript compiler, which has no such state, and is where the time is saved.
+// NodeWorkerPool is still off by default (NodeWorkerPool.enabled).
+// The script is done when it calls process.exit, or when the handles/requests it started have finished.
+"use strict";
+var path = require("path");
+var readline = require("readline");
+
+var realStdoutWrite = process.stdout.write.bind(process.stdout);
+var realStderrWrite = process.stderr.write.bind(process.stderr);
+var realExit = process.exit;
+var realArgv = process.argv;
+
+function ExitSignal(code) {
+    this.code = code;
+}
+
+var queue = [];
+var running = false;
+
+readline.createInterface({input: process.stdin, terminal: false}).on("line", function (line) {
+    if (line.trim().length === 0) {
+        return;
+    }
+    queue.push(JSON.parse(line));
+    runNext();
+}).on("close", function () {
+    realExit.call(process, 0);
+});
+
+// Timers are only counted by getActiveResourcesInfo (node 17+), older versions count them as handles.
+function activeResources() {
+    if (process.getActiveResourcesInfo) {
+        return process.getActiveResourcesInfo().length;
+    }
+    return process._getActiveHandles().length + process._getActiveRequests().length;
+}
+
+function runNext() {
+    if (running || queue.length === 0) {
+        return;
+    }
+    running = true;
+    var request = queue.shift();
+
+    var stdout = [];
+    var stderr = [];
+    var finished = false;
+
+    var baseline = activeResources();
+
+    function capture(buffer) {
+        return function (chunk, encoding, callback) {
+            buffer.push(typeof chunk === "string" ? chunk : chunk.toString(typeof encoding === "string" ? encoding : "utf8"));
+            var cb = typeof encoding === "function" ? encoding : callback;
+            if (typeof cb === "function") {
+                cb();
+            }
+            return true;
+        };
+    }
+
+    function finish(error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        process.stdout.write = realStdoutWrite;
+        process.stderr.write = realStderrWrite;
+        process.exit = realExit;
+        process.argv = realArgv;
+        process.removeListener("uncaughtException", onUncaught);
+
+        var response = {id: request.id};
+        if (error) {
+            response.error = String(error && error.stack || error);
+        } else {
+            response.stdout = stdout.join("");
+            response.stderr = stderr.join("");
+        }
+        realStdoutWrite(JSON.stringify(response) + "\n");
+
+        running = false;
+        setImmediate(runNext);
+    }
+
+    function onUncaught(e) {
+        if (e instanceof ExitSignal) {
+            finish(null);
+        } else {
+            finish(e);
+        }
+    }
+
+    // Waits until everything the script started asynchronously is done.
+    // When called from its own timer, that timer is still counted as active.
+    function waitForAsync(fromTimer) {
+        if (finished) {
+            return;
+        }
+        if (activeResources() - (fromTimer ? 1 : 0) <= baseline) {
+            finish(null);
+        } else {
+            setTimeout(waitForAsync, 5, true);
+        }
+    }
+
+    var script = path.resolve(request.args[0]);
+
+    // Everything but the TypeScript compiler is loaded again, so no state is left over from the last request.
+    var keep = path.sep + "node_modules" + path.sep + "typescript" + path.sep;
+    Object.keys(require.cache).forEach(function (file) {
+        if (file.indexOf(keep) === -1) {
+            delete require.cache[file];
+        }
+    });
+
+    process.stdout.write = capture(stdout);
+    process.stderr.write = capture(stderr);
+    process.exit = function (code) {
+        throw new ExitSignal(code);
+    };
+    process.argv = [realArgv[0], script].concat(request.args.slice(1));
+    process.on("uncaughtException", onUncaught);
+
+    try {
+        require(script);
+    } catch (e) {
+        onUncaught(e);
+        return;
+    }
+    setImmediate(waitForAsync, false);
+}
@@ -17,6 +17,19 @@ public class Options {
     // This option disables that, since it for some libraries (jQuery), runs EXTREMELY slow.
     public boolean resolveIncludesWithFields = true;
 
+    // If true, cycles in the include-graph of the static analysis are collapsed as they are formed (every time the solver finishes), instead of only once at the end of the analysis.
+    // Only the part of the graph that has gotten new includes is searched for cycles.
+    // This changes the result, as the callbacks run again on the merged classes. Off by default, which collapses once at the end, as originally.
+    public boolean collapseCyclesIncrementally = false;
+
+    // If more than 1, the constraints for the functions in the mixed analyses are generated in parallel using this many threads.
+    // The generated unions are recorded, and afterwards applied to the solver (and the callbacks run) one function at a time, in the same order as when running sequentially.
+    public int constraintGenerationThreads = 1;
+
+    // If true, the combined analyses (UPPER_LOWER etc.) generate the constraints of their two sub-analyses at the same time, before solving them one after the other.
+    // The result is the same, but the recorded constraints of both analyses are kept in memory until they are solved.
+    public boolean combinedConstraintsConcurrently = false;
+
     // If false, then every time a value from the heap is used, it will be treated independently. And will not be unified.
     public boolean unionHeapIdentifiers = false; // makes next to zero difference, but false seems to be better.
 
@@ -33,6 +46,26 @@ public class Options {
     public boolean recordCalls = true;
     public int maxObjects = 1000;
 
+    // If true, a compact binary copy of every JSNAP snapshot is written next to the cached snapshot. When it is up to date, that copy is memory-mapped and read instead of parsing the JSON.
+    public boolean binarySnapshots = true;
+
+    // The max number of entries in each of the caches of combined types in TypeReducer (least recently used are evicted), 0 for no limit.
+    // Types combined from the same types are shared through these caches, so with a limit, types that are evicted and combined again are no longer the same instance, and the printed declaration can change.
+    public int combinedTypeCacheSize = 0;
+
+    // If more than 1, the CombinationTypes are combined in parallel (see CombinationTypeResolver). The result should be the same as with 1, which can be used to check it.
+    public int typeResolutionThreads = 1;
+
+    // How many of the declarations are evaluated in parallel, when getting the best evaluation of several declarations (see Main.makeSuperEval). The result is the same no matter the number.
+    public int evaluationThreads = 1;
+
+    // If true, the command-line node tools (ts-type-reader, jsnap --onlyInstrument, tscheck) are run in long-lived node processes, instead of a new process every time (see NodeWorkerPool).
+    // Off by default: a worker keeps some modules loaded between scripts (see lib/node-worker.js), so only turn it on for tools where that is known to give the same output as a fresh process.
+    public boolean useNodeWorkers = false;
+
+    // If true, the hits/misses/evictions of the caches (see BoundedCache) are printed after the declaration has been created.
+    public boolean printCacheStatistics = false;
+
     // If enabled, then for functions where we have information about all arguments and the return, we use that information instead of doing the static analysis.
     public boolean skipStaticAnalysisWhenPossible = true;
 
@@ -70,11 +103,18 @@ public class Options {
     public boolean combineInterfacesAfterAnalysis = false;
 
     public boolean neverPrintModules = false;
+    // If true, the functions/objects the DeclarationPrinter has to print as interfaces (to break cycles etc.) are found before printing, from the strongly connected components of the types (see CyclicTypeFinder). Printing is then only started over for objects too long to be printed inline.
+    // Otherwise they are found while printing, and printing is started over every time one is found. The output is not quite the same: another type of a cycle can become the interface, and a named function/object used as the index-type of an array is printed as "Array<typeof name>" instead of becoming an interface.
+    public boolean findInterfacesBeforePrinting = false;
     public boolean evaluationAnyAreOK = false; // In the evaluation, any and anything is a true-positive.
     public boolean useJSDoc = true;
     public boolean evaluationPushFunctionReturnsDown = true; // If set to true, for a function return/arguments the depth is set to depth + 1000. This makes sure that classes and the like are evaluated first, not whatever functions returns instances of them.
     public boolean evaluateArguments = true; // if false, arguments are skipped in the evaluation.
 
+    // If true, the evaluation of a pair of types is remembered, and reused if the pair is reached again where it would otherwise be evaluated again (see EvaluationMemo).
+    // Only used when maxEvaluationDepth is set, where it gives the exact same numbers. Without a max depth, a pair is never evaluated twice anyway (it is skipped once seen).
+    public boolean memoizeEvaluation = false;
+
     public enum StaticAnalysisMethod {
         NONE("none", "none"),
         COMBINED("combined", "combined"),
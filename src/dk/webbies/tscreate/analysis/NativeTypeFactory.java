@@ -26,51 +26,71 @@ public class NativeTypeFactory {
     }
 
     public FunctionNode fromSignature(Signature signature) {
-        if (signatureCache.containsKey(signature)) {
-            return signatureCache.get(signature);
+        FunctionNode cached = signatureCache.get(signature);
+        if (cached != null) {
+            return cached;
         }
-        List<String> argumentNames = signature.getParameters().stream().map(Signature.Parameter::getName).collect(Collectors.toList());
-        FunctionNode functionNode = FunctionNode.create(argumentNames, solver);
+        SignatureTemplate template = nativeClasses.getSignatureTemplates().computeIfAbsent(signature, SignatureTemplate::new);
+        FunctionNode functionNode = FunctionNode.create(template.argumentNames, solver);
         signatureCache.put(signature, functionNode);
 
-        int normalParameterCount = signature.getParameters().size();
-        if (signature.isHasRestParameter()) {
-            normalParameterCount--;
-            Type restType = Iterables.getLast(signature.getParameters()).getType();
-            List<Type> typeArguments;
-            if (restType instanceof ReferenceType) {
-                ReferenceType ref = (ReferenceType) restType;
-                typeArguments = ref.getTypeArguments();
-            } else if (restType instanceof GenericType) {
-                GenericType generic = (GenericType) restType;
-                typeArguments = generic.getTypeArguments();
-            } else {
-                throw new RuntimeException();
-            }
-
-            if (typeArguments.size() != 1) {
-                throw new RuntimeException();
-            }
-        }
-        for (int i = 0; i < normalParameterCount; i++) {
-            Type parameter = signature.getParameters().get(i).getType();
+        for (int i = 0; i < template.parameterTypes.size(); i++) {
             UnionNode argument = functionNode.arguments.get(i);
-            solver.union(argument, fromType(parameter, true));
+            solver.union(argument, fromType(template.parameterTypes.get(i), true));
         }
-        solver.union(functionNode.returnNode, fromType(signature.getResolvedReturnType(), false));
+        solver.union(functionNode.returnNode, fromType(template.returnType, false));
 
         functionNode.arguments.forEach(arg -> solver.union(arg, primitiveFactory.nonVoid()));
 
         return functionNode;
     }
 
+    /**
+     * The part of converting a native signature that doesn't depend on the solver: the names of the arguments, and the types to convert for the (non-rest) parameters and the return.
+     * Made once per signature, and shared by all the NativeTypeFactories using the same NativeClassesMap (see NativeClassesMap.getSignatureTemplates()).
+     * The nodes themselves belong to a solver, so they are still made by every factory.
+     */
+    public static final class SignatureTemplate {
+        private final List<String> argumentNames;
+        private final List<Type> parameterTypes;
+        private final Type returnType;
+
+        private SignatureTemplate(Signature signature) {
+            List<Signature.Parameter> parameters = signature.getParameters();
+            this.argumentNames = Collections.unmodifiableList(parameters.stream().map(Signature.Parameter::getName).collect(Collectors.toList()));
+
+            int normalParameterCount = parameters.size();
+            if (signature.isHasRestParameter()) {
+                normalParameterCount--;
+                Type restType = Iterables.getLast(parameters).getType();
+                List<Type> typeArguments;
+                if (restType instanceof ReferenceType) {
+                    ReferenceType ref = (ReferenceType) restType;
+                    typeArguments = ref.getTypeArguments();
+                } else if (restType instanceof GenericType) {
+                    GenericType generic = (GenericType) restType;
+                    typeArguments = generic.getTypeArguments();
+                } else {
+                    throw new RuntimeException();
+                }
+
+                if (typeArguments.size() != 1) {
+                    throw new RuntimeException();
+                }
+            }
+            this.parameterTypes = Collections.unmodifiableList(parameters.subList(0, normalParameterCount).stream().map(Signature.Parameter::getType).collect(Collectors.toList()));
+            this.returnType = signature.getResolvedReturnType();
+        }
+    }
+
     private Map<Type, UnionNode> typeCache = new HashMap<>();
     private UnionNode fromType(Type type, boolean isArgument) {
         if (isArgument && type instanceof SimpleType && ((SimpleType) type).getKind() == SimpleTypeKind.Any) {
             return primitiveFactory.nonVoid();
         }
-        if (typeCache.containsKey(type)) {
-            return new IncludeNode(solver, typeCache.get(type));
+        UnionNode cached = typeCache.get(type);
+        if (cached != null) {
+            return new IncludeNode(solver, cached);
         } else {
             EmptyNode node = new EmptyNode(solver);
             typeCache.put(type, node);
@@ -113,11 +133,13 @@ public class NativeTypeFactory {
 
         @Override
         public List<UnionNode> visit(GenericType t) {
-            if (genericTypeCache.containsKey(new Pair<>(t, isBaseType))) {
-                return genericTypeCache.get(new Pair<>(t, isBaseType));
+            Pair<GenericType, Boolean> cacheKey = new Pair<>(t, isBaseType);
+            List<UnionNode> cached = genericTypeCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
             }
             ArrayList<UnionNode> result = new ArrayList<>();
-            genericTypeCache.put(new Pair<>(t, isBaseType), result);
+            genericTypeCache.put(cacheKey, result);
 
             InterfaceType interfaceType = t.toInterface();
             convertedTypeMap.put(interfaceType, t);
@@ -127,28 +149,22 @@ public class NativeTypeFactory {
 
         @Override
         public List<UnionNode> visit(InterfaceType t) {
-            if (interfaceCache.containsKey(new Pair<>(t, isBaseType))) {
-                return interfaceCache.get(new Pair<>(t, isBaseType));
+            Pair<InterfaceType, Boolean> cacheKey = new Pair<>(t, isBaseType);
+            List<UnionNode> cached = interfaceCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
             }
             List<UnionNode> result = new ArrayList<>();
-            interfaceCache.put(new Pair<>(t, isBaseType), result);
+            interfaceCache.put(cacheKey, result);
 
             ObjectNode obj = new ObjectNode(solver);
-            if (convertedTypeMap.containsKey(t)) {
-                GenericType type = convertedTypeMap.get(t);
-                if (nativeClasses.nameFromType(type) != null) {
-                    if (isBaseType) {
-                        obj.setIsBaseType(true);
-                    }
-                    obj.setTypeName(nativeClasses.nameFromType(type));
-                }
-            } else {
-                if (nativeClasses.nameFromType(t) != null) {
-                    if (isBaseType) {
-                        obj.setIsBaseType(true);
-                    }
-                    obj.setTypeName(nativeClasses.nameFromType(t));
+            GenericType converted = convertedTypeMap.get(t);
+            String typeName = nativeClasses.nameFromType(converted != null ? converted : t);
+            if (typeName != null) {
+                if (isBaseType) {
+                    obj.setIsBaseType(true);
                 }
+                obj.setTypeName(typeName);
             }
 
             result.add(obj);
@@ -3,61 +3,63 @@ package dk.webbies.tscreate.analysis;
 import dk.webbies.tscreate.Options;
 import dk.webbies.tscreate.analysis.unionFind.*;
 import dk.webbies.tscreate.jsnap.Snap;
-import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.paser.AST.FunctionExpression;
 import dk.webbies.tscreate.paser.AST.Identifier;
 import dk.webbies.tscreate.paser.AST.NodeTransverse;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Erik Krogh Kristensen on 05-09-2015.
+ *
+ * Finds what every identifier in a function resolves to (a value from the environment, a global, a local declaration, etc.), as a Summary.
+ * The Summary only depends on the function and its environment, so it can be applied any number of times, to any solver (see MixedTypeAnalysis.analyse).
+ *
+ * The values and globalValues maps are shared (never copied) by the visitors of the nested functions.
+ * A name declared in one of the functions from the analysed closure down to the current function hides those values, see isDeclared().
  */
 public class ResolveEnvironmentVisitor implements NodeTransverse<Void> {
-    private final Snap.Obj closure;
     private final FunctionExpression function;
-    private final UnionFindSolver solver;
-    private final Map<Identifier, UnionNode> identifierMap;
-    private final Snap.Obj globalObject;
     private final Map<String, Snap.Property> globalValues;
     private final Map<String, Snap.Property> values;
-    private final PrimitiveNode.Factory primitiveFactory;
-    private final HeapValueFactory heapFactory;
-    private final Map<Snap.Obj, LibraryClass> libraryClasses;
-    private final Options options;
+    private final DeclaredNames declared;
+    private final Summary summary;
 
-    public ResolveEnvironmentVisitor(
-            Snap.Obj closure,
+    private ResolveEnvironmentVisitor(
             FunctionExpression function,
-            UnionFindSolver solver,
-            Map<Identifier, UnionNode> identifierMap,
             Map<String, Snap.Property> values,
             Map<String, Snap.Property> globalValues,
-            Snap.Obj globalObject,
-            HeapValueFactory heapFactory,
-            Map<Snap.Obj, LibraryClass> libraryClasses,
-            Options options) {
-        this.closure = closure;
+            DeclaredNames parentDeclared,
+            Summary summary) {
         this.function = function;
-        this.solver = solver;
-        this.identifierMap = identifierMap;
-        this.globalObject = globalObject;
-        this.heapFactory = heapFactory;
-        this.libraryClasses = libraryClasses;
-        this.options = options;
-        this.globalValues = new HashMap<>(globalValues);
-        this.values = new HashMap<>(values);
-        this.primitiveFactory = heapFactory.getPrimitivesFactory();
-        function.declarations.keySet().forEach(this.values::remove);
-        function.declarations.keySet().forEach(this.globalValues::remove);
+        this.globalValues = globalValues;
+        this.values = values;
+        this.declared = function.declarations.isEmpty() ? parentDeclared : new DeclaredNames(function.declarations.keySet(), parentDeclared);
+        this.summary = summary;
+    }
+
+    public static Summary summarize(FunctionExpression function, Map<String, Snap.Property> values, Map<String, Snap.Property> globalValues) {
+        Summary summary = new Summary();
+        new ResolveEnvironmentVisitor(function, values, globalValues, null, summary).visit(function);
+        summary.trim();
+        return summary;
+    }
 
+    private boolean isDeclared(String name) {
+        for (DeclaredNames declared = this.declared; declared != null; declared = declared.parent) {
+            if (declared.names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public Void visit(FunctionExpression function) {
         if (function != this.function) {
-            new ResolveEnvironmentVisitor(this.closure, function, this.solver, this.identifierMap, this.values, this.globalValues, globalObject, heapFactory, libraryClasses, options).visit(function);
+            new ResolveEnvironmentVisitor(function, this.values, this.globalValues, this.declared, this.summary).visit(function);
             return null;
         } else {
             return NodeTransverse.super.visit(function);
@@ -67,35 +69,96 @@ public class ResolveEnvironmentVisitor implements NodeTransverse<Void> {
     @Override
     public Void visit(Identifier identifier) {
         String name = identifier.getName();
-        UnionNode idNode = getIdentifier(identifier, solver, identifierMap);
-        if (this.values.containsKey(name)) {
-            solver.union(idNode, heapFactory.fromProperty(this.values.get(name)));
+        boolean declared = isDeclared(name);
+        if (!declared && this.values.containsKey(name)) {
+            summary.add(identifier, Resolution.VALUE, this.values.get(name));
         } else if (identifier.isGlobal) {
             if (name.equals("arguments")) {
-                solver.union(idNode, new DynamicAccessNode(solver, primitiveFactory.any(), primitiveFactory.number()));
-                ObjectNode obj = new ObjectNode(solver);
-                obj.addField("length", primitiveFactory.number());
-                solver.union(idNode, obj);
-            } else if (this.globalValues.containsKey(name)) {
-                solver.union(idNode, heapFactory.fromProperty(this.globalValues.get(name)));
+                summary.add(identifier, Resolution.ARGUMENTS, null);
+            } else if (!declared && this.globalValues.containsKey(name)) {
+                summary.add(identifier, Resolution.VALUE, this.globalValues.get(name));
             } else {
-                solver.union(idNode, primitiveFactory.any());
+                summary.add(identifier, Resolution.ANY, null);
             }
         } else {
             assert identifier.getDeclaration() != null;
-            if (!options.unionHeapIdentifiers) {
-                UnionNode declaration = getIdentifier(identifier.getDeclaration(), solver, identifierMap);
-                solver.union(declaration, idNode);
-            }
+            summary.add(identifier, Resolution.DECLARATION, null);
         }
 
         return NodeTransverse.super.visit(identifier);
     }
 
+    private enum Resolution {
+        VALUE, ARGUMENTS, ANY, DECLARATION
+    }
+
+    /**
+     * What the identifiers of a function resolve to, in the order they appear.
+     */
+    public static final class Summary {
+        private final ArrayList<Identifier> identifiers = new ArrayList<>();
+        private final ArrayList<Resolution> resolutions = new ArrayList<>();
+        private final ArrayList<Snap.Property> properties = new ArrayList<>(); // The value, for Resolution.VALUE.
+
+        private Summary() { }
+
+        private void add(Identifier identifier, Resolution resolution, Snap.Property property) {
+            identifiers.add(identifier);
+            resolutions.add(resolution);
+            properties.add(property);
+        }
+
+        private void trim() {
+            identifiers.trimToSize();
+            resolutions.trimToSize();
+            properties.trimToSize();
+        }
+
+        public void apply(UnionFindSolver solver, Map<Identifier, UnionNode> identifierMap, HeapValueFactory heapFactory, Options options) {
+            PrimitiveNode.Factory primitiveFactory = heapFactory.getPrimitivesFactory();
+            for (int i = 0; i < identifiers.size(); i++) {
+                Identifier identifier = identifiers.get(i);
+                UnionNode idNode = getIdentifier(identifier, solver, identifierMap);
+                switch (resolutions.get(i)) {
+                    case VALUE:
+                        solver.union(idNode, heapFactory.fromProperty(properties.get(i)));
+                        break;
+                    case ARGUMENTS:
+                        solver.union(idNode, new DynamicAccessNode(solver, primitiveFactory.any(), primitiveFactory.number()));
+                        ObjectNode obj = new ObjectNode(solver);
+                        obj.addField("length", primitiveFactory.number());
+                        solver.union(idNode, obj);
+                        break;
+                    case ANY:
+                        solver.union(idNode, primitiveFactory.any());
+                        break;
+                    case DECLARATION:
+                        if (!options.unionHeapIdentifiers) {
+                            UnionNode declaration = getIdentifier(identifier.getDeclaration(), solver, identifierMap);
+                            solver.union(declaration, idNode);
+                        }
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown resolution: " + resolutions.get(i));
+                }
+            }
+        }
+    }
+
     public static UnionNode getIdentifier(Identifier identifier, UnionFindSolver solver, Map<Identifier, UnionNode> identifierMap) {
         if (!identifierMap.containsKey(identifier)) {
             identifierMap.put(identifier, new EmptyNode(solver));
         }
         return identifierMap.get(identifier);
     }
+
+    private static final class DeclaredNames {
+        private final Set<String> names;
+        private final DeclaredNames parent;
+
+        private DeclaredNames(Set<String> names, DeclaredNames parent) {
+            this.names = names;
+            this.parent = parent;
+        }
+    }
 }
@@ -6,6 +6,7 @@ import dk.webbies.tscreate.jsnap.JSNAPUtil;
 import dk.webbies.tscreate.jsnap.Snap;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Erik Krogh Kristensen on 05-09-2015.
@@ -16,8 +17,9 @@ public class SubsetHeapValueFactory implements HeapValueFactory {
     public final Snap.Obj globalObject;
     private final TypeAnalysis typeAnalysis;
 
-    private final Map<Snap.Obj, UnionNode> cache = new HashMap<>();
-    private final Map<Snap.Property, UnionNode> propertyCache = new HashMap<>();
+    // Concurrent, since the caches are shared by the threads generating constraints in parallel (see Options.constraintGenerationThreads).
+    private final Map<Snap.Obj, HeapValue> cache = new ConcurrentHashMap<>();
+    private final Map<Snap.Property, UnionNode> propertyCache = new ConcurrentHashMap<>();
 
     public SubsetHeapValueFactory(Snap.Obj globalObject, UnionFindSolver solver, TypeAnalysis typeAnalysis) {
         this.globalObject = globalObject;
@@ -36,8 +38,9 @@ public class SubsetHeapValueFactory implements HeapValueFactory {
 
     private UnionNode innerFromProperty(Snap.Property property) {
         if (property.value == null) {
-            if (propertyCache.containsKey(property)) {
-                return propertyCache.get(property);
+            UnionNode cached = propertyCache.get(property);
+            if (cached != null) {
+                return cached;
             }
             if (property.get == null || property.set == null) {
                 // TODO: This sometimes happens with Symbols.
@@ -55,8 +58,8 @@ public class SubsetHeapValueFactory implements HeapValueFactory {
                 }
             }
             IncludeNode result = new IncludeNode(solver, getter, setter, new NameNode(solver, property.name));
-            propertyCache.put(property, result);
-            return result;
+            UnionNode existing = propertyCache.putIfAbsent(property, result); // No unions are done above, so if another thread got here first, its node can just be used instead.
+            return existing != null ? existing : result;
         } else {
             return new IncludeNode(solver, innerFromValue(property.value), new NameNode(solver, property.name));
         }
@@ -74,8 +77,9 @@ public class SubsetHeapValueFactory implements HeapValueFactory {
         // From here we know that is in an Snap.Obj
         Snap.Obj obj = (Snap.Obj) value;
 
-        if (cache.containsKey(obj)) {
-            return new IncludeNode(solver, cache.get(obj));
+        HeapValue cached = cache.get(obj);
+        if (cached != null) {
+            return new IncludeNode(solver, use(cached));
         } else {
             List<UnionNode> resultList = new ArrayList<>();
             ObjectNode objectNode = new ObjectNode(solver);
@@ -94,14 +98,51 @@ public class SubsetHeapValueFactory implements HeapValueFactory {
 
             IncludeNode result = new IncludeNode(solver, resultList);
 
-            cache.put(obj, result);
-            if (obj.properties != null) {
-                for (Snap.Property property : obj.properties) {
-                    objectNode.addField(property.name,solver.union(this.innerFromProperty(property), primitivesFactory.nonVoid()));
-                }
+            HeapValue heapValue = new HeapValue(result, solver.isRecording() ? new UnionBatch() : null);
+            HeapValue existing = cache.putIfAbsent(obj, heapValue);
+            if (existing != null) {
+                // Another thread got here first, its nodes are used instead.
+                return new IncludeNode(solver, use(existing));
             }
-            return result;
+            build(heapValue.batch, () -> {
+                if (obj.properties != null) {
+                    for (Snap.Property property : obj.properties) {
+                        objectNode.addField(property.name,solver.union(this.innerFromProperty(property), primitivesFactory.nonVoid()));
+                    }
+                }
+            });
+            return use(heapValue);
+        }
+    }
+
+    /*
+     * When the constraints are generated in parallel, the unions building a heap value are recorded in a batch of their own, by whichever thread gets to it first.
+     * Every batch using the heap value applies that batch (if it isn't already) at the point where it is used.
+     * So the unions are applied at the same point as when generating sequentially, no matter which thread built the value.
+     */
+    private static final class HeapValue {
+        private final UnionNode node;
+        private final UnionBatch batch; // null if not recording.
+
+        private HeapValue(UnionNode node, UnionBatch batch) {
+            this.node = node;
+            this.batch = batch;
+        }
+    }
+
+    private void build(UnionBatch batch, Runnable builder) {
+        if (batch == null) {
+            builder.run();
+        } else {
+            solver.recordInto(batch, builder);
+        }
+    }
+
+    private UnionNode use(HeapValue heapValue) {
+        if (heapValue.batch != null) {
+            solver.applyOnce(heapValue.batch);
         }
+        return heapValue.node;
     }
 
     public Collection<UnionNode> getFunctionNode(Snap.Obj obj) {
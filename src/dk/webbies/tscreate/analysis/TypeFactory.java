@@ -18,6 +18,7 @@ import dk.webbies.tscreate.jsnap.JSNAPUtil;
 import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.paser.AST.Identifier;
+import dk.webbies.tscreate.util.BoundedCache;
 import dk.webbies.tscreate.util.Util;
 
 import java.util.*;
@@ -31,7 +32,8 @@ import static java.util.Collections.*;
  * Created by Erik Krogh Kristensen on 02-09-2015.
  */
 public class TypeFactory {
-    private final Map<UnionClass, DeclarationType> cache = new WeakHashMap<>();
+    // Never evicts (getType relies on it to stop when creating recursive types), but the keys are weak, so it doesn't keep the union-classes alive.
+    private final BoundedCache<UnionClass, DeclarationType> cache = BoundedCache.weakKeys("unionClassTypes");
     private final NativeClassesMap nativeClasses;
     private final HashSet<String> takenClassNames = new HashSet<>();
     private TypeAnalysis typeAnalysis;
@@ -39,6 +41,8 @@ public class TypeFactory {
     private Options options;
     public final TypeReducer typeReducer;
     private final Snap.Obj globalObject;
+    // There are a lot of primitives without names, and those are all the same, so they share one instance per type (within this analysis).
+    private final Map<PrimitiveDeclarationType.Type, PrimitiveDeclarationType> namelessPrimitives = new EnumMap<>(PrimitiveDeclarationType.Type.class);
 
     public TypeFactory(Snap.Obj globalObject, Map<Snap.Obj, LibraryClass> libraryClasses, Options options, NativeClassesMap nativeClasses, TypeAnalysis typeAnalysis) {
         this.libraryClasses = libraryClasses;
@@ -47,6 +51,9 @@ public class TypeFactory {
         this.globalObject = globalObject;
         this.typeAnalysis = typeAnalysis;
         this.typeReducer = new TypeReducer(globalObject, nativeClasses, options);
+        for (PrimitiveDeclarationType.Type type : PrimitiveDeclarationType.Type.values()) {
+            namelessPrimitives.put(type, PrimitiveDeclarationType.shared(type));
+        }
     }
 
 
@@ -67,7 +74,7 @@ public class TypeFactory {
 
     private DeclarationType getType(Collection<UnionNode> nodes) {
         if (nodes.size() == 0) {
-            return PrimitiveDeclarationType.Void(EMPTY_SET);
+            return namelessPrimitives.get(PrimitiveDeclarationType.Type.VOID);
         } else if (nodes.size() == 1) {
             return getType(nodes.iterator().next());
         } else {
@@ -112,7 +119,7 @@ public class TypeFactory {
         result.addType(PrimitiveDeclarationType.Void(feature.getNames()));
 
         // Adding primitives
-        feature.getPrimitives().stream().map(type -> PrimitiveDeclarationType.fromType(type, EMPTY_SET)).forEach(type -> result.addType((DeclarationType)type));
+        feature.getPrimitives().stream().map(namelessPrimitives::get).forEach(type -> result.addType((DeclarationType)type));
 
         // Adding function
         if (feature.getFunctionFeature() != null) {
@@ -0,0 +1,420 @@
+package dk.webbies.tscreate.analysis.declarations;
+
+import dk.webbies.tscreate.Options;
+import dk.webbies.tscreate.analysis.declarations.types.*;
+import dk.webbies.tscreate.declarationReader.DeclarationParser;
+import dk.webbies.tscreate.util.Tarjan;
+import dk.webbies.tscreate.util.Util;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the functions and objects that the DeclarationPrinter has to print as interfaces (instead of inline), before anything is printed, so the printer doesn't have to start over every time it finds one (used with Options.findInterfacesBeforePrinting).
+ *
+ * A function/object is printed as an interface if:
+ *  - it is needed to break a cycle of types that are printed inline (which would otherwise be printed forever).
+ *    The cycles are found as the strongly connected components of the types printed inline.
+ *    In each component, the type picked is the last function/object on the path when a cycle is first closed (in the order the types are printed), like the printer does when it finds a cycle while printing.
+ *    That type is removed, and what is left of the component is split into components again, until no cycles are left.
+ *  - it is the index-type of an array (and doesn't have a name it can be printed with).
+ *  - it is a member of a module, with a name that can't be printed. Then the member is printed as an interface, or the module if the member isn't a function/object.
+ *  - it is declared with "declare var" (only happens with Options.neverPrintModules, otherwise such types have a name).
+ *
+ * Objects that are too long to be printed inline are not found here, since that depends on the printed text. The printer starts over when it finds one of those.
+ */
+public final class CyclicTypeFinder {
+    private final Map<String, DeclarationType> declarations;
+    private final Map<DeclarationType, String> declarationNames;
+    private final Set<DeclarationType> printsAsInterface;
+    private final DeclarationParser.NativeClassesMap nativeClasses;
+    private final Options options;
+
+    private final List<DeclarationType> found = new ArrayList<>();
+    private final Set<DeclarationType> foundSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // The types printed inline, in the order they are first reached.
+    private final Map<DeclarationType, TypeNode> nodes = new IdentityHashMap<>();
+    private final List<TypeNode> nodeOrder = new ArrayList<>();
+
+    // The interfaces and classes, whose content is printed on its own (and not inline). Printed in the same order as DeclarationPrinter.finish().
+    private final Deque<ClassType> classRoots = new ArrayDeque<>();
+    private final Deque<DeclarationType> interfaceRoots = new ArrayDeque<>();
+    private final Set<DeclarationType> seenRoots = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public CyclicTypeFinder(Map<String, DeclarationType> declarations, Map<DeclarationType, String> declarationNames, Set<DeclarationType> printsAsInterface, DeclarationParser.NativeClassesMap nativeClasses, Options options) {
+        this.declarations = declarations;
+        this.declarationNames = declarationNames;
+        this.printsAsInterface = printsAsInterface;
+        this.nativeClasses = nativeClasses;
+        this.options = options;
+    }
+
+    /**
+     * @return The types that should be printed as interfaces, in the order they were found.
+     */
+    List<DeclarationType> find() {
+        for (Map.Entry<String, DeclarationType> entry : declarations.entrySet()) {
+            if (DeclarationPrinter.isPrintableName(entry.getKey())) {
+                visitDeclaration(entry.getKey(), entry.getKey(), entry.getValue(), new ArrayDeque<>());
+            }
+        }
+        while (!classRoots.isEmpty() || !interfaceRoots.isEmpty()) {
+            while (!classRoots.isEmpty()) {
+                walkAll(classChildren(classRoots.poll()));
+            }
+            while (!interfaceRoots.isEmpty()) {
+                walkAll(interfaceChildren(interfaceRoots.poll()));
+            }
+        }
+
+        List<TypeNode> graph = nodeOrder.stream().filter(node -> !foundSet.contains(node.type)).collect(Collectors.toList());
+        breakCycles(graph);
+        return found;
+    }
+
+    // Mirrors DeclarationPrinter.printDeclaration.
+    private void visitDeclaration(String path, String name, DeclarationType type, Deque<DeclarationType> modules) {
+        type = type.resolve();
+        if (printsAsInterface.contains(type) || foundSet.contains(type)) {
+            addRoot(type);
+            if (!DeclarationPrinter.isPrintableName(name) && !modules.isEmpty()) {
+                addFound(modules.peek());
+            }
+            return;
+        }
+        if (!DeclarationPrinter.isPrintableName(name)) {
+            if (isFunctionOrObject(type) || type instanceof DynamicAccessType) {
+                addFound(type);
+            } else if (!modules.isEmpty()) {
+                addFound(modules.peek());
+            }
+            return;
+        }
+
+        if (type instanceof FunctionType && path.equals(declarationNames.get(type))) {
+            walkAll(functionChildren((FunctionType) type));
+        } else if (type instanceof UnnamedObjectType && path.equals(declarationNames.get(type))) {
+            modules.push(type);
+            for (Map.Entry<String, DeclarationType> entry : sortedEntries(((UnnamedObjectType) type).getDeclarations())) {
+                visitDeclaration(path + "." + entry.getKey(), entry.getKey(), entry.getValue(), modules);
+            }
+            modules.pop();
+        } else if (type instanceof ClassType && path.equals(declarationNames.get(type))) {
+            // Printed with DeclarationPrinter.printClass.
+            ClassType clazz = (ClassType) type;
+            List<DeclarationType> children = new ArrayList<>(functionChildren(clazz.getConstructorType()));
+            Predicate<String> notStaticInSuperClass = notIn(ClassType.getStaticFieldsInclSuper(clazz.getSuperClass(), nativeClasses));
+            sortedEntries(clazz.getStaticFields()).stream().filter(entry -> notStaticInSuperClass.test(entry.getKey()) && !entry.getKey().toLowerCase().equals("constructor")).forEach(entry -> children.add(entry.getValue()));
+            Predicate<String> notInSuperClass = notIn(ClassType.getFieldsInclSuper(clazz.getSuperClass(), nativeClasses));
+            sortedEntries(clazz.getPrototypeFields()).stream().filter(entry -> notInSuperClass.test(entry.getKey())).forEach(entry -> children.add(entry.getValue()));
+            walkAll(children);
+        } else if (isFunctionOrObject(type) && !isBoundary(type)) {
+            // The declared type is on the path when it is printed, so it has to be printed as an interface.
+            addFound(type);
+        } else {
+            walk(type);
+        }
+    }
+
+    private static Predicate<String> notIn(Set<String> inSuperClass) {
+        return name -> !inSuperClass.contains(name);
+    }
+
+    private void walkAll(List<DeclarationType> types) {
+        for (DeclarationType type : types) {
+            walk(type);
+        }
+    }
+
+    private static final class Frame {
+        private final TypeNode node;
+        private final Iterator<DeclarationType> children;
+
+        private Frame(TypeNode node, List<DeclarationType> children) {
+            this.node = node;
+            this.children = children.iterator();
+        }
+    }
+
+    // A depth-first traversal of the types that are printed inline, that records the edges between them. With an explicit stack, since the types can be nested very deep.
+    private void walk(DeclarationType start) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        enter(null, start, stack);
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.children.hasNext()) {
+                enter(frame.node, frame.children.next(), stack);
+            } else {
+                stack.pop();
+            }
+        }
+    }
+
+    private void enter(TypeNode parent, DeclarationType type, Deque<Frame> stack) {
+        if (type == null) {
+            return;
+        }
+        type = type.resolve();
+        if (isBoundary(type)) {
+            return;
+        }
+        TypeNode node = nodes.get(type);
+        boolean isNew = node == null;
+        if (isNew) {
+            node = new TypeNode(type, nodeOrder.size());
+            nodes.put(type, node);
+            nodeOrder.add(node);
+        }
+        if (parent != null) {
+            parent.edges.add(node);
+        }
+        if (isNew) {
+            stack.push(new Frame(node, inlineChildren(type)));
+        }
+    }
+
+    /**
+     * If the type is not printed inline, but as a name (of an interface, a class, etc.), or as something without content.
+     * Types with content that is printed on its own are added as roots.
+     */
+    private boolean isBoundary(DeclarationType type) {
+        if (printsAsInterface.contains(type) || foundSet.contains(type)) {
+            addRoot(type);
+            return true;
+        }
+        if (isFunctionOrObject(type)) {
+            return declarationNames.containsKey(type);
+        }
+        if (type instanceof InterfaceDeclarationType) {
+            addRoot(type);
+            return true;
+        }
+        if (type instanceof ClassType) {
+            if (!declarationNames.containsKey(type)) {
+                addRoot(type);
+            }
+            return true;
+        }
+        if (type instanceof ClassInstanceType) {
+            ClassType clazz = ((ClassInstanceType) type).getClazz();
+            if (!declarationNames.containsKey(clazz)) {
+                addRoot(clazz);
+            }
+            return true;
+        }
+        if (type instanceof NamedObjectType) {
+            return !((NamedObjectType) type).getName().equals("Array");
+        }
+        return !(type instanceof UnionDeclarationType);
+    }
+
+    private static boolean isFunctionOrObject(DeclarationType type) {
+        return type instanceof FunctionType || type instanceof UnnamedObjectType;
+    }
+
+    private void addFound(DeclarationType type) {
+        if (foundSet.add(type)) {
+            found.add(type);
+            addRoot(type);
+        }
+    }
+
+    private void addRoot(DeclarationType type) {
+        if (seenRoots.add(type)) {
+            if (type instanceof ClassType) {
+                classRoots.add((ClassType) type);
+            } else {
+                interfaceRoots.add(type);
+            }
+        }
+    }
+
+    // The types printed inline as part of an inline type. Mirrors DeclarationPrinter.TypeVisitor.
+    private List<DeclarationType> inlineChildren(DeclarationType type) {
+        if (type instanceof FunctionType) {
+            return functionChildren((FunctionType) type);
+        } else if (type instanceof UnnamedObjectType) {
+            return sortedEntries(((UnnamedObjectType) type).getDeclarations()).stream().map(Map.Entry::getValue).collect(Collectors.toList());
+        } else if (type instanceof UnionDeclarationType) {
+            return ((UnionDeclarationType) type).getTypes();
+        } else if (type instanceof NamedObjectType) {
+            return arrayChildren((NamedObjectType) type);
+        }
+        return Collections.emptyList();
+    }
+
+    // Mirrors DeclarationPrinter.TypeVisitor.printArray.
+    private List<DeclarationType> arrayChildren(NamedObjectType array) {
+        if (array.getIndexType() == null) {
+            return Collections.emptyList();
+        }
+        DeclarationType indexType = array.getIndexType().resolve();
+        if (indexType instanceof UnnamedObjectType || indexType instanceof FunctionType || indexType instanceof DynamicAccessType) {
+            if (!printsAsInterface.contains(indexType) && !declarationNames.containsKey(indexType)) {
+                addFound(indexType);
+            }
+            return Collections.emptyList();
+        } else if (indexType instanceof NamedObjectType) {
+            NamedObjectType named = (NamedObjectType) indexType;
+            if (named.getName().equals("Array") && named.getIndexType() != null && named.getIndexType().resolve() instanceof NamedObjectType && ((NamedObjectType) named.getIndexType().resolve()).getName().equals("Array")) {
+                return Collections.emptyList(); // Printed as any[][]
+            }
+            return Collections.singletonList(indexType);
+        } else if (indexType instanceof InterfaceDeclarationType || indexType instanceof ClassInstanceType) {
+            return Collections.singletonList(indexType);
+        }
+        return Collections.emptyList();
+    }
+
+    // The types printed as part of an interface, mirrors how DeclarationPrinter.TypeVisitor prints InterfaceDeclarationTypes (and the interfaces made by DeclarationPrinter.addPrintAsInterface).
+    private List<DeclarationType> interfaceChildren(DeclarationType type) {
+        type = type.resolve();
+        List<DeclarationType> result = new ArrayList<>();
+        FunctionType function = null;
+        DynamicAccessType dynamicAccess = null;
+        UnnamedObjectType object = null;
+        if (type instanceof InterfaceDeclarationType) {
+            InterfaceDeclarationType interfaceType = (InterfaceDeclarationType) type;
+            function = interfaceType.getFunction();
+            dynamicAccess = interfaceType.getDynamicAccess();
+            object = interfaceType.getObject();
+        } else if (type instanceof FunctionType) {
+            function = (FunctionType) type;
+        } else if (type instanceof DynamicAccessType) {
+            dynamicAccess = (DynamicAccessType) type;
+        } else if (type instanceof UnnamedObjectType) {
+            object = (UnnamedObjectType) type;
+        }
+
+        if (function != null) {
+            if (printsAsInterface.contains(function) || foundSet.contains(function) || declarationNames.containsKey(function)) {
+                result.addAll(functionChildren(function));
+            } else {
+                result.add(function); // The printer puts it on the path, so it is traversed as an inline function.
+            }
+        }
+        if (dynamicAccess != null && (dynamicAccess.isNumberIndexer() || options.printStringIndexers)) {
+            result.add(dynamicAccess.getReturnType());
+        }
+        if (object != null) {
+            sortedEntries(object.getDeclarations()).forEach(entry -> result.add(entry.getValue()));
+        }
+        return result;
+    }
+
+    // The types printed as part of a class that is printed on its own, mirrors how DeclarationPrinter.TypeVisitor prints ClassTypes.
+    private List<DeclarationType> classChildren(ClassType clazz) {
+        List<DeclarationType> result = new ArrayList<>(functionChildren(clazz.getConstructorType()));
+        sortedEntries(clazz.getStaticFields()).forEach(entry -> result.add(entry.getValue()));
+        Predicate<String> notInSuperClass = notIn(ClassType.getFieldsInclSuper(clazz.getSuperClass(), nativeClasses));
+        sortedEntries(clazz.getPrototypeFields()).stream().filter(entry -> notInSuperClass.test(entry.getKey())).forEach(entry -> result.add(entry.getValue()));
+        return result;
+    }
+
+    private static List<DeclarationType> functionChildren(FunctionType function) {
+        List<DeclarationType> result = new ArrayList<>();
+        for (FunctionType.Argument argument : function.getArguments()) {
+            result.add(argument.getType());
+        }
+        result.add(function.getReturnType());
+        return result;
+    }
+
+    private static List<Map.Entry<String, DeclarationType>> sortedEntries(Map<String, DeclarationType> map) {
+        return map.entrySet().stream().sorted(Util::compareStringEntry).collect(Collectors.toList());
+    }
+
+    // Breaks the cycles among the given nodes, the components are handled in the order they are first reached.
+    private void breakCycles(List<TypeNode> graph) {
+        List<List<TypeNode>> components = new Tarjan<TypeNode>().getSCComponents(graph).stream()
+                .filter(CyclicTypeFinder::isCyclic)
+                .sorted(Comparator.comparingInt(component -> component.stream().mapToInt(node -> node.order).min().getAsInt()))
+                .collect(Collectors.toList());
+
+        for (List<TypeNode> component : components) {
+            Set<TypeNode> members = Collections.newSetFromMap(new IdentityHashMap<>());
+            members.addAll(component);
+            for (TypeNode node : component) {
+                node.component = members;
+            }
+            TypeNode picked = pickInterface(component);
+            if (picked == null) {
+                // No cycle closed by the traversal goes through a function/object. But every node of a component is on a cycle, so any function/object of it will do.
+                picked = component.stream().filter(node -> isFunctionOrObject(node.type)).min(Comparator.comparingInt(node -> node.order)).orElse(null);
+            }
+            if (picked == null) {
+                continue; // Only arrays (printed as "any" when they repeat) and unions, nothing to print as an interface.
+            }
+            picked.removed = true;
+            addFound(picked.type);
+            breakCycles(component.stream().filter(node -> !node.removed).sorted(Comparator.comparingInt(node -> node.order)).collect(Collectors.toList()));
+        }
+    }
+
+    private static boolean isCyclic(List<TypeNode> component) {
+        if (component.size() > 1) {
+            return true;
+        }
+        TypeNode node = component.get(0);
+        return node.getEdges().contains(node);
+    }
+
+    /**
+     * Traverses the component in the order it is printed, from the node reached first, until a cycle is closed.
+     * @return The last function/object on the cycle, or null if none of the cycles closed by the traversal contains a function/object.
+     */
+    private TypeNode pickInterface(List<TypeNode> component) {
+        TypeNode start = component.stream().min(Comparator.comparingInt(node -> node.order)).get();
+        Set<TypeNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<TypeNode> path = new ArrayList<>();
+        Map<TypeNode, Integer> pathIndex = new IdentityHashMap<>();
+        Deque<Iterator<TypeNode>> edges = new ArrayDeque<>();
+
+        visited.add(start);
+        pathIndex.put(start, path.size());
+        path.add(start);
+        edges.push(start.getEdges().iterator());
+        while (!edges.isEmpty()) {
+            Iterator<TypeNode> iterator = edges.peek();
+            if (!iterator.hasNext()) {
+                edges.pop();
+                pathIndex.remove(path.remove(path.size() - 1));
+                continue;
+            }
+            TypeNode next = iterator.next();
+            Integer onPath = pathIndex.get(next);
+            if (onPath != null) {
+                for (int i = path.size() - 1; i >= onPath; i--) {
+                    if (isFunctionOrObject(path.get(i).type)) {
+                        return path.get(i);
+                    }
+                }
+            } else if (visited.add(next)) {
+                pathIndex.put(next, path.size());
+                path.add(next);
+                edges.push(next.getEdges().iterator());
+            }
+        }
+        return null;
+    }
+
+    private static final class TypeNode extends Tarjan.Node<TypeNode> {
+        private final DeclarationType type;
+        private final int order;
+        private final List<TypeNode> edges = new ArrayList<>();
+        private Set<TypeNode> component = null; // While breaking the cycles of a component, only the edges within it are followed.
+        private boolean removed = false;
+
+        private TypeNode(DeclarationType type, int order) {
+            this.type = type;
+            this.order = order;
+        }
+
+        @Override
+        public Collection<TypeNode> getEdges() {
+            return edges.stream().filter(node -> !node.removed && (component == null || component.contains(node))).collect(Collectors.toList());
+        }
+    }
+}
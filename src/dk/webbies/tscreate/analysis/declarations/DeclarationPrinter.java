@@ -13,6 +13,12 @@ import fj.F;
 import fj.pre.Ord;
 import fj.pre.Ordering;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,29 +52,11 @@ public class DeclarationPrinter {
         this.options = options;
     }
 
-    private void addPrintAsInterface(fj.data.List<DeclarationType> functionalTypesList, DeclarationType singleType) {
-        DeclarationType type = null;
-
-        if (functionalTypesList != null) {
-            List<DeclarationType> types = new ArrayList<>();
-            functionalTypesList.forEach(types::add);
-
-
-            for (DeclarationType candidate : types) {
-                if (candidate instanceof FunctionType || candidate instanceof UnnamedObjectType || candidate instanceof DynamicAccessType) {
-                    type = candidate;
-                    break;
-                }
-            }
-            assert type != null;
-        } else {
-            type = singleType;
-        }
-
+    private void addPrintAsInterface(DeclarationType type) {
         type = type.resolve();
         if (type instanceof FunctionType) {
             FunctionType func = (FunctionType) type;
-            InterfaceDeclarationType inter = new InterfaceDeclarationType("function_" + InterfaceDeclarationType.interfaceCounter++, type.getNames());
+            InterfaceDeclarationType inter = new InterfaceDeclarationType("function_" + InterfaceDeclarationType.interfaceCounter.getAndIncrement(), type.getNames());
             inter.setFunction(func);
             printsAsInterface.put(func, inter);
         } else if (type instanceof UnnamedObjectType) {
@@ -112,21 +100,30 @@ public class DeclarationPrinter {
     }
 
     private static final Predicate<String> validNameRegexp = Pattern.compile("[a-zA-Z_$][0-9a-zA-Z_$]*").asPredicate();
-    private boolean validName(String str) {
+    private static boolean validName(String str) {
         return validNameRegexp.test(str) && !keyWords.contains(str) && !(str.contains("&") || str.contains("#") || str.contains(";"));
     }
 
+    // If a declaration with this name can be printed (otherwise the member itself, or the module containing it, is printed as an interface).
+    static boolean isPrintableName(String name) {
+        return !exportNameBlacklist.contains(name) && validName(name);
+    }
+
     private Set<InterfaceDeclarationType> printedInterfaces = new HashSet<>();
     private Set<ClassType> printedClasses = new HashSet<>();
 
-    private void finish(StringBuilder outerBuilder) {
+    // The interfaces and classes are written to the output one at a time, as soon as each of them is done, so the whole declaration is never in memory at once.
+    private void finish(Writer out) throws IOException {
         finishing = true;
 
         while (classesToPrint.size() > 0) {
             ArrayList<ClassType> copy = new ArrayList<>(classesToPrint);
             classesToPrint.clear();
             for (ClassType classType : copy) {
-                printInterface(outerBuilder, classType, printedClasses);
+                StringBuilder builder = printInterface(classType, printedClasses);
+                if (builder != null) {
+                    out.append(builder);
+                }
             }
         }
 
@@ -135,49 +132,84 @@ public class DeclarationPrinter {
             ArrayList<InterfaceDeclarationType> copy = new ArrayList<>(interfacesToPrint);
             interfacesToPrint.clear();
             for (InterfaceDeclarationType type : copy) {
-                printInterface(outerBuilder, type, printedInterfaces);
+                StringBuilder builder = printInterface(type, printedInterfaces);
+                if (builder != null) {
+                    out.append(builder);
+                }
             }
         }
 
         if (interfacesToPrint.size() > 0 || classesToPrint.size() > 0) {
-            finish(outerBuilder);
+            finish(out);
         }
     }
 
     private <T extends DeclarationType> void printInterface(StringBuilder outerBuilder, T type, Set<T> printed) {
-        if (!printed.contains(type)) {
-            printed.add(type);
-            StringBuilder builder;
-            while (true) {
-                try {
-                    finishing = true;
-                    type.accept(new TypeVisitor(), new VisitorArg(builder = new StringBuilder(), fj.data.List.nil(), null));
-                    break;
-                } catch (GotCyclic e) {
-                    ident = 0;
-                    addPrintAsInterface(e.types, e.singleType);
-                }
-            }
+        StringBuilder builder = printInterface(type, printed);
+        if (builder != null) {
             outerBuilder.append(builder);
         }
     }
 
+    /**
+     * @return The printed interface, or null if it has already been printed.
+     */
+    private <T extends DeclarationType> StringBuilder printInterface(T type, Set<T> printed) {
+        if (printed.contains(type)) {
+            return null;
+        }
+        printed.add(type);
+        StringBuilder builder;
+        while (true) {
+            try {
+                finishing = true;
+                type.accept(new TypeVisitor(), new VisitorArg(builder = new StringBuilder(), null));
+                break;
+            } catch (GotCyclic e) {
+                ident = 0;
+                addPrintAsInterface(e.type);
+            }
+        }
+        return builder;
+    }
+
     public String print() {
+        StringWriter out = new StringWriter();
+        try {
+            print(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Can't happen with a StringWriter.
+        }
+        return out.toString();
+    }
+
+    /**
+     * Prints the declaration to a file (UTF-8), without building the whole declaration as a String first.
+     */
+    public void print(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            print(out);
+        }
+    }
+
+    /**
+     * Prints the declaration to out, in the same order as print().
+     * The top-level declarations are printed first (they might have to be printed again, if a cycle is found), and are then written to out together, after that every interface/class is written as soon as it is printed.
+     * out is not flushed or closed.
+     */
+    public void print(Writer out) throws IOException {
         if (ident != 0) {
             throw new RuntimeException("Can only print top-level declarations with this method");
         }
         ident = 0;
-        return innerPrint();
+        innerPrint(out);
     }
 
-    private String innerPrint() {
+    private void innerPrint(Writer out) throws IOException {
         StringBuilder builder;
         while (true) {
             builder = new StringBuilder();
-            this.declarationNames = new ClassNameFinder(declarations, printsAsInterface).getDeclarationNames();
-            if (options.neverPrintModules) {
-                this.declarationNames.clear();
-            }
+            findDeclarationNames();
             try {
                 for (Map.Entry<String, DeclarationType> entry : this.declarations.entrySet()) {
                     DeclarationType type = entry.getValue();
@@ -186,11 +218,11 @@ public class DeclarationPrinter {
                         System.err.println("Skipping printing global declaration: \"" + name + "\", because I couldn't print it properly.");
                         continue;
                     }
-                    printDeclaration(new VisitorArg(builder, fj.data.List.nil(), name), name, type);
+                    printDeclaration(new VisitorArg(builder, name), name, type);
                 }
             } catch (GotCyclic e) {
                 ident = 0;
-                addPrintAsInterface(e.types, e.singleType);
+                addPrintAsInterface(e.type);
                 this.printedClasses.clear();
                 this.printedInterfaces.clear();
                 continue;
@@ -198,8 +230,27 @@ public class DeclarationPrinter {
             break;
         }
 
-        finish(builder);
-        return builder.toString();
+        out.append(builder);
+        finish(out);
+    }
+
+    // With options.findInterfacesBeforePrinting, the types that have to be printed as interfaces are found before printing (see CyclicTypeFinder), so printing is only restarted for the few it can't find.
+    // Which types get a name depends on which objects are printed as interfaces, so that is repeated until the names no longer cause new interfaces (usually once or twice).
+    private void findDeclarationNames() {
+        while (true) {
+            this.declarationNames = new ClassNameFinder(declarations, printsAsInterface).getDeclarationNames();
+            if (options.neverPrintModules) {
+                this.declarationNames.clear();
+            }
+            if (!options.findInterfacesBeforePrinting) {
+                return;
+            }
+            List<DeclarationType> found = new CyclicTypeFinder(declarations, declarationNames, printsAsInterface.keySet(), nativeClasses, options).find();
+            if (found.isEmpty()) {
+                return;
+            }
+            found.forEach(this::addPrintAsInterface);
+        }
     }
 
     private void printDeclaration(VisitorArg arg, String name, DeclarationType type) {
@@ -211,8 +262,8 @@ public class DeclarationPrinter {
         if ((type instanceof FunctionType || type instanceof UnnamedObjectType) && printsAsInterface.containsKey(type)) {
             type = printsAsInterface.get(type);
         }
-        if (exportNameBlacklist.contains(name) || !validName(name)) {
-            throw new GotCyclic(arg.getSeen().cons(type));
+        if (!isPrintableName(name)) {
+            throw new GotCyclic(arg.innermost(type));
         }
 
         if (type instanceof FunctionType && !this.declarationNames.containsKey(type)) {
@@ -220,25 +271,22 @@ public class DeclarationPrinter {
         }
 
         StringBuilder builder = arg.builder;
+        // (With Options.neverPrintModules there are no declarationNames, so only the last case is used.)
         if (type instanceof FunctionType && arg.path.equals(declarationNames.get(type))) {
-            if (options.neverPrintModules) {
-                throw new GotCyclic(type);
-            }
-            arg = arg.cons(type, true);
+            boolean entered = arg.enter(type);
+            VisitorArg subArg = arg.withoutPath();
             FunctionType functionType = (FunctionType) type;
             ident(builder);
             write(builder, prefix + " function " + name + "(");
             List<FunctionType.Argument> args = functionType.getArguments();
-            printArguments(arg, args, functionType.minArgs);
+            printArguments(subArg, args, functionType.minArgs);
             write(builder, "): ");
-            functionType.getReturnType().accept(new TypeVisitor(), arg);
+            functionType.getReturnType().accept(new TypeVisitor(), subArg);
+            arg.exit(type, entered);
 
             write(builder, ";\n");
         } else if (type instanceof UnnamedObjectType && arg.path.equals(declarationNames.get(type))) {
-            if (options.neverPrintModules) {
-                throw new GotCyclic(type);
-            }
-            arg = arg.cons(type, false);
+            boolean entered = arg.enter(type);
             UnnamedObjectType module = (UnnamedObjectType) type;
             ident(builder);
             write(builder, prefix + " module ");
@@ -252,10 +300,8 @@ public class DeclarationPrinter {
 
             ident--;
             writeln(builder, "}");
+            arg.exit(type, entered);
         } else if (type instanceof ClassType && arg.path.equals(declarationNames.get(type))) {
-            if (options.neverPrintModules) {
-                throw new GotCyclic(type);
-            }
             ClassType clazz = (ClassType) type;
             if (printedClasses.contains(clazz)) {
                 throw new RuntimeException();
@@ -264,12 +310,13 @@ public class DeclarationPrinter {
 
             printClass(arg, name, prefix, builder, clazz);
         } else {
-            arg = arg.cons(type, false);
+            boolean entered = arg.enter(type);
             ident(builder);
             write(builder, prefix + " var ");
             write(builder, name);
             write(builder, ": ");
             type.accept(new TypeVisitor(), arg);
+            arg.exit(type, entered);
             write(builder, ";\n");
         }
     }
@@ -353,7 +400,7 @@ public class DeclarationPrinter {
             printedClasses.clear();
             printedInterfaces.clear();
 
-            VisitorArg arg = new VisitorArg(builder, fj.data.List.nil(), "");
+            VisitorArg arg = new VisitorArg(builder, "");
             if (type instanceof ClassType) {
                 ClassType clazz = (ClassType) type;
                 // TODO: If typeof expression, then print it as such.
@@ -371,7 +418,7 @@ public class DeclarationPrinter {
             } else if (type instanceof UnnamedObjectType) {
                 if (declarationNames.containsKey(type)) {
                     String path = declarationNames.get(type);
-                    printDeclaration(new VisitorArg(builder, arg.seen, path), lastPart(path), type);
+                    printDeclaration(arg.withPath(path), lastPart(path), type);
                 } else {
                     printObjectTypeBig(new TypeVisitor(), arg, (UnnamedObjectType) type);
                 }
@@ -400,7 +447,7 @@ public class DeclarationPrinter {
         return typePath.substring(typePath.lastIndexOf('.') + 1, typePath.length());
     }
 
-    private static final Set<String> exportNameBlacklist = new HashSet<>(Arrays.asList("function", "delete", "var", "with"));
+    static final Set<String> exportNameBlacklist = new HashSet<>(Arrays.asList("function", "delete", "var", "with"));
 
     private void printArguments(VisitorArg visitorArg, List<FunctionType.Argument> args, Integer minArgs) {
         List<String> names = new ArrayList<>();
@@ -438,51 +485,88 @@ public class DeclarationPrinter {
     private static final class VisitorArg {
         final StringBuilder builder;
         final String path;
-        private fj.data.List<DeclarationType> seen;
+        // The functions/objects (and arrays) that what is printed now is part of, in the order they were entered. Shared by all the VisitorArgs of one declaration/interface, a type is added before its content is printed, and removed after.
+        private final List<DeclarationType> seen;
+        private final Set<DeclarationType> seenSet;
+
+        VisitorArg(StringBuilder builder, String path) {
+            this(builder, new ArrayList<>(), Collections.newSetFromMap(new IdentityHashMap<>()), path);
+        }
 
-        VisitorArg(StringBuilder builder, fj.data.List<DeclarationType> seen, String path) {
+        private VisitorArg(StringBuilder builder, List<DeclarationType> seen, Set<DeclarationType> seenSet, String path) {
             this.builder = builder;
             this.seen = seen;
+            this.seenSet = seenSet;
             this.path = path;
         }
 
-        VisitorArg cons(DeclarationType type, boolean nullPath) {
-            String path = this.path;
-            if (nullPath) {
-                path = null;
+        VisitorArg withBuilder(StringBuilder builder) {
+            return new VisitorArg(builder, seen, seenSet, path);
+        }
+
+        VisitorArg withPath(String path) {
+            return new VisitorArg(builder, seen, seenSet, path);
+        }
+
+        VisitorArg withoutPath() {
+            if (this.path == null) {
+                return this;
             }
-            return new VisitorArg(builder, seen.cons(type), path);
+            return withPath(null);
         }
 
         VisitorArg addPath(String propName) {
             if (this.path == null) {
                 return this;
             }
-            return new VisitorArg(builder, seen, this.path.isEmpty() ? propName : this.path + "." + propName);
+            return withPath(this.path.isEmpty() ? propName : this.path + "." + propName);
+        }
+
+        /**
+         * @return false if the type was already there, then exit() must not remove it from the set.
+         */
+        boolean enter(DeclarationType type) {
+            seen.add(type);
+            return seenSet.add(type);
+        }
+
+        void exit(DeclarationType type, boolean entered) {
+            seen.remove(seen.size() - 1);
+            if (entered) {
+                seenSet.remove(type);
+            }
         }
 
         boolean contains(DeclarationType type) {
-            return seen.exists(otherType -> Objects.equals(otherType, type));
+            return seenSet.contains(type);
         }
 
-        public fj.data.List<DeclarationType> getSeen() {
-            return seen;
+        /**
+         * The type to print as an interface, when a cycle (or something else that can't be printed inline) is found while printing the given type (null if it is found while printing what was entered last).
+         * That is the given type, if it can be an interface, otherwise the function/object that was entered last.
+         */
+        DeclarationType innermost(DeclarationType type) {
+            if (canBeInterface(type)) {
+                return type;
+            }
+            for (int i = seen.size() - 1; i >= 0; i--) {
+                if (canBeInterface(seen.get(i))) {
+                    return seen.get(i);
+                }
+            }
+            throw new RuntimeException("Found a cycle without a function or object");
+        }
+
+        private static boolean canBeInterface(DeclarationType type) {
+            return type instanceof FunctionType || type instanceof UnnamedObjectType || type instanceof DynamicAccessType;
         }
     }
 
     private final class GotCyclic extends RuntimeException {
-        final fj.data.List<DeclarationType> types;
-        final DeclarationType singleType;
-
-        private GotCyclic(fj.data.List<DeclarationType> types) {
-            assert !types.isEmpty();
-            this.types = types;
-            this.singleType = null;
-        }
+        final DeclarationType type; // The type to print as an interface, before printing again.
 
         private GotCyclic(DeclarationType type) {
-            this.singleType = type;
-            this.types = null;
+            this.type = type;
         }
     }
 
@@ -552,26 +636,28 @@ public class DeclarationPrinter {
                     arg.builder.append("any");
                     return;
                 } else {
-                    throw new GotCyclic(arg.getSeen());
+                    throw new GotCyclic(arg.innermost(null));
                 }
             }
 
-            arg = arg.cons(functionType, true);
+            boolean entered = arg.enter(functionType);
+            VisitorArg subArg = arg.withoutPath();
 
             write(arg.builder, "(");
-            printArguments(arg, functionType.getArguments(), functionType.minArgs);
+            printArguments(subArg, functionType.getArguments(), functionType.minArgs);
             if (insideInterface) {
                 write(arg.builder, ") : ");
             } else {
                 write(arg.builder, ") => ");
             }
-            functionType.getReturnType().accept(visitor, arg);
+            functionType.getReturnType().accept(visitor, subArg);
+            arg.exit(functionType, entered);
         }
     }
 
     public void printObjectTypeBig(TypeVisitor visitor, VisitorArg arg, UnnamedObjectType objectType) {
         StringBuilder builder = arg.builder;
-        VisitorArg subArg = new VisitorArg(builder, arg.seen, arg.path);
+        VisitorArg subArg = arg.withBuilder(builder);
         writeln(builder, "{");
 
         ident++;
@@ -594,7 +680,7 @@ public class DeclarationPrinter {
 
     public void printObjectType(TypeVisitor visitor, VisitorArg arg, UnnamedObjectType objectType) {
         StringBuilder builder = new StringBuilder();
-        VisitorArg subArg = new VisitorArg(builder, arg.seen, arg.path);
+        VisitorArg subArg = arg.withBuilder(builder);
         write(builder, "{");
         List<String> keys = objectType.getDeclarations().keySet().stream().sorted(String::compareTo).collect(Collectors.toList());
         for (int i = 0; i < keys.size(); i++) {
@@ -610,7 +696,7 @@ public class DeclarationPrinter {
         write(builder, "}");
         String declarationsString = builder.toString();
         if ((declarationsString.contains("\n") || declarationsString.length() > 50) && !this.printingInlineType) {
-            throw new GotCyclic(arg.getSeen());
+            throw new GotCyclic(arg.innermost(null));
         } else {
             arg.builder.append(declarationsString);
         }
@@ -649,13 +735,13 @@ public class DeclarationPrinter {
                         arg.builder.append("any");
                         return null;
                     } else {
-                        throw new GotCyclic(arg.getSeen());
+                        throw new GotCyclic(arg.innermost(null));
                     }
                 }
 
-                arg = arg.cons(objectType, false);
-
+                boolean entered = arg.enter(objectType);
                 printObjectType(this, arg, objectType);
+                arg.exit(objectType, entered);
                 return null;
             }
         }
@@ -789,12 +875,15 @@ public class DeclarationPrinter {
                         arg.builder.append("any[][]");
                     } else {
                         arg.builder.append("Array<");
-                        indexType.accept(this, arg.cons(indexType, true));
+                        boolean entered = arg.enter(indexType);
+                        indexType.accept(this, arg.withoutPath());
+                        arg.exit(indexType, entered);
                         arg.builder.append(">");
                     }
                 }
             } else if (indexType instanceof UnnamedObjectType || indexType instanceof FunctionType || indexType instanceof DynamicAccessType) {
-                if (printsAsInterface.containsKey(indexType)) {
+                // With options.findInterfacesBeforePrinting, a function/object with a name is printed as "Array<typeof name>", instead of being made an interface.
+                if (printsAsInterface.containsKey(indexType) || (options.findInterfacesBeforePrinting && declarationNames.containsKey(indexType))) {
                     arg.builder.append("Array<");
                     indexType.accept(this, arg);
                     arg.builder.append(">");
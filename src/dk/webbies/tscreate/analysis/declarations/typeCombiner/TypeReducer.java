@@ -6,6 +6,7 @@ import dk.webbies.tscreate.Options;
 import dk.webbies.tscreate.analysis.declarations.typeCombiner.singleTypeReducers.*;
 import dk.webbies.tscreate.analysis.declarations.types.*;
 import dk.webbies.tscreate.jsnap.Snap;
+import dk.webbies.tscreate.util.BoundedCache;
 import dk.webbies.tscreate.util.Pair;
 import dk.webbies.tscreate.util.Util;
 
@@ -19,13 +20,15 @@ import static dk.webbies.tscreate.declarationReader.DeclarationParser.NativeClas
  * Created by Erik Krogh Kristensen on 16-10-2015.
  */
 public class TypeReducer {
-    public final Map<DeclarationType, List<DeclarationType>> originals = new WeakHashMap<>();
+    public final Map<DeclarationType, List<DeclarationType>> originals = Collections.synchronizedMap(new WeakHashMap<>()); // Synchronized, since CombinationTypes can be combined concurrently.
     private final Options options;
     private final Map<Pair<Class<? extends DeclarationType>, Class<? extends DeclarationType>>, SingleTypeReducerInterface> handlers = new HashMap<>();
     private final Map<Class<? extends DeclarationType>, SameTypeMultiReducer> multiHandlers = new HashMap<>();
     private final Map<Class<? extends DeclarationType>, SameTypeSingleInstanceReducer> singleInstanceHandlers = new HashMap<>();
+    // For every pair of classes with a handler, whether the handler can reduce anything (false for the CantReduceReducers).
+    private final Map<Pair<Class<? extends DeclarationType>, Class<? extends DeclarationType>>, Boolean> canReduce = new HashMap<>();
 
-    public HashMap<Set<DeclarationType>, DeclarationType> combinationTypeCache = new HashMap<>(); // Used inside combinationType.
+    public final BoundedCache<TypeSetKey, DeclarationType> combinationTypeCache; // Used inside combinationType.
 
     private void register(SameTypeSingleInstanceReducer<? extends DeclarationType> handler) {
         if (this.singleInstanceHandlers.containsKey(handler.getTheClass())) {
@@ -52,12 +55,14 @@ public class TypeReducer {
             throw new RuntimeException("Duplicate handler registration, " + key1);
         }
         this.handlers.put(key1, handler);
+        this.canReduce.put(key1, !(handler instanceof CantReduceReducer));
         if (handler.getAClass() != handler.getBClass()) {
             Pair<Class<? extends DeclarationType>, Class<? extends DeclarationType>> key2 = new Pair<>(handler.getBClass(), handler.getAClass());
             if (this.handlers.containsKey(key2)) {
                 throw new RuntimeException("Duplicate handler registration, " + key2);
             }
             this.handlers.put(key2, new ReverseReducer<>(handler));
+            this.canReduce.put(key2, !(handler instanceof CantReduceReducer));
         }
 
         if (handler instanceof SameTypeMultiReducer) {
@@ -68,6 +73,8 @@ public class TypeReducer {
 
     public TypeReducer(Snap.Obj globalObject, NativeClassesMap nativeClasses, Options options) {
         this.options = options;
+        this.combinationTypeCache = new BoundedCache<>("combinationTypes", options.combinedTypeCacheSize);
+        this.unionDeclarationTypeCache = new BoundedCache<>("unionTypes", options.combinedTypeCacheSize);
         register(new PrimitiveObjectReducer(globalObject));
         register(new FunctionObjectReducer(globalObject, originals));
         register(new FunctionClassReducer(this));
@@ -102,6 +109,10 @@ public class TypeReducer {
         register(new CantReduceReducer(ClassInstanceType.class, ClassType.class));
     }
 
+    public Options getOptions() {
+        return options;
+    }
+
     private static Map<PrimitiveDeclarationType.Type, Function<Pair<DeclarationType, DeclarationType>, DeclarationType>> specialPrimitives = new HashMap<>();
     static {
         specialPrimitives.put(PrimitiveDeclarationType.Type.VOID, other -> other.right);
@@ -166,9 +177,9 @@ public class TypeReducer {
         }
 
 
-        // In 3 steps
+        // In 2 steps
         // - first see if a whole group of the same type can be reduced (Named-type, looking at you).
-        // - Then in a loop:
+        // - Then until nothing changes (see reducePairs):
         //   - See if a single type can be reduced.
         //   - See if a pair of types can be reduced.
 
@@ -191,70 +202,134 @@ public class TypeReducer {
             }
         }
 
-        boolean fixPoint = false;
-        while (!fixPoint) {
-            fixPoint = true;
-            for (int i = 0; i < types.size(); i++) {
-                DeclarationType type = types.get(i);
-                if (this.singleInstanceHandlers.containsKey(type.getClass())) {
-                    SameTypeSingleInstanceReducer handler = this.singleInstanceHandlers.get(type.getClass());
-                    DeclarationType result = handler.reduce(type);
-                    if (result == null) {
+        types = reducePairs(types, avoidUnresolved);
+
+        extractInterfaces(types);
+
+        if (types.size() == 0) {
+            return PrimitiveDeclarationType.Void(Collections.EMPTY_SET);
+        } else if (types.size() == 1) {
+            return types.get(0);
+        } else {
+            TypeSetKey key = new TypeSetKey(types);
+            UnionDeclarationType result = unionDeclarationTypeCache.get(key);
+            if (result == null) {
+                result = new UnionDeclarationType(types);
+                unionDeclarationTypeCache.put(key, result);
+            }
+            return result;
+        }
+    }
+    private final BoundedCache<TypeSetKey, UnionDeclarationType> unionDeclarationTypeCache;
+
+    /**
+     * Reduces single types and pairs of types, until nothing more can be reduced.
+     *
+     * The types are processed from a worklist, and a type is only paired with the types that are already reduced (which have all been paired with each other), so only new types are ever paired again.
+     * The reduced types are bucketed by class, and a bucket is skipped if the two classes can't be reduced (CantReduceReducer).
+     * The special primitives (void, any, non-void) reduce with anything, so they are kept on the side.
+     */
+    private List<DeclarationType> reducePairs(List<DeclarationType> types, boolean avoidUnresolved) {
+        Deque<DeclarationType> worklist = new ArrayDeque<>(types);
+        Map<Class<? extends DeclarationType>, List<DeclarationType>> reducedByClass = new LinkedHashMap<>();
+        List<DeclarationType> reducedSpecials = new ArrayList<>();
+        Set<DeclarationType> reduced = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<DeclarationType> order = new ArrayList<>();
+
+        while (!worklist.isEmpty()) {
+            DeclarationType type = worklist.removeFirst();
+            if (reduced.contains(type)) {
+                continue; // The same as reducing the type with itself.
+            }
+
+            SameTypeSingleInstanceReducer singleInstanceHandler = this.singleInstanceHandlers.get(type.getClass());
+            if (singleInstanceHandler != null) {
+                DeclarationType result = singleInstanceHandler.reduce(type);
+                if (result != null) {
+                    addUnfolded(worklist, result);
+                    continue;
+                }
+            }
+
+            boolean isSpecial = isSpecialPrimitive(type);
+            DeclarationType other = null;
+            DeclarationType combinedType = findReduction(reducedSpecials, type, avoidUnresolved);
+            if (combinedType != null) {
+                other = reducedSpecials.get(reducedSpecials.size() - 1);
+            } else {
+                for (Map.Entry<Class<? extends DeclarationType>, List<DeclarationType>> entry : reducedByClass.entrySet()) {
+                    if (!isSpecial && !canReduce(entry.getKey(), type.getClass())) {
                         continue;
                     }
-                    types.remove(i);
-                    if (result instanceof UnionDeclarationType) {
-                        types.addAll(((UnionDeclarationType) result).getTypes());
-                    } else {
-                        types.add(result);
+                    List<DeclarationType> bucket = entry.getValue();
+                    combinedType = findReduction(bucket, type, avoidUnresolved);
+                    if (combinedType != null) {
+                        other = bucket.get(bucket.size() - 1);
+                        break;
                     }
-                    fixPoint = false;
-                    break;
                 }
             }
 
+            if (combinedType == null) {
+                reduced.add(type);
+                order.add(type);
+                if (isSpecial) {
+                    reducedSpecials.add(type);
+                } else {
+                    reducedByClass.computeIfAbsent(type.getClass(), key -> new ArrayList<>()).add(type);
+                }
+            } else {
+                reduced.remove(other);
+                if (isSpecialPrimitive(other)) {
+                    reducedSpecials.remove(reducedSpecials.size() - 1);
+                } else {
+                    List<DeclarationType> bucket = reducedByClass.get(other.getClass());
+                    bucket.remove(bucket.size() - 1);
+                }
+                addUnfolded(worklist, combinedType);
+            }
+        }
 
+        // A type can be in the order more than once, if it was reduced away and then came back.
+        List<DeclarationType> result = new ArrayList<>(reduced.size());
+        for (DeclarationType type : order) {
+            if (reduced.remove(type)) {
+                result.add(type);
+            }
+        }
+        return result;
+    }
 
-            for (int i = 0; i < types.size(); i++) {
-                DeclarationType one = types.get(i);
-                for (int j = i + 1; j < types.size(); j++) {
-                    DeclarationType two = types.get(j);
-                    DeclarationType combinedType = combineTypes(one, two, avoidUnresolved);
-                    if (combinedType == null) {
-                        continue;
-                    } else if (combinedType instanceof UnionDeclarationType) {
-                        List<DeclarationType> unfoldedTypes = ((UnionDeclarationType) combinedType).getTypes();
-                        types.addAll(unfoldedTypes);
-                    } else {
-                        types.add(combinedType);
-                    }
-                    fixPoint = false;
-                    types.remove(j);
-                    types.remove(i);
-                    i--;
-                    break;
-                }
+    // Tries to reduce the type with each of the candidates. If one succeeds, that candidate is moved to the end of the list, and the result is returned.
+    private DeclarationType findReduction(List<DeclarationType> candidates, DeclarationType type, boolean avoidUnresolved) {
+        for (int i = 0; i < candidates.size(); i++) {
+            DeclarationType candidate = candidates.get(i);
+            DeclarationType combinedType = combineTypes(candidate, type, avoidUnresolved);
+            if (combinedType != null) {
+                candidates.remove(i);
+                candidates.add(candidate);
+                return combinedType;
             }
         }
+        return null;
+    }
 
-        extractInterfaces(types);
+    private boolean canReduce(Class<? extends DeclarationType> one, Class<? extends DeclarationType> two) {
+        Boolean result = canReduce.get(new Pair<Class<? extends DeclarationType>, Class<? extends DeclarationType>>(one, two));
+        return result == null || result; // If there is no handler, combineTypes throws an exception, same as always.
+    }
 
-        if (types.size() == 0) {
-            return PrimitiveDeclarationType.Void(Collections.EMPTY_SET);
-        } else if (types.size() == 1) {
-            return types.get(0);
+    private static boolean isSpecialPrimitive(DeclarationType type) {
+        return type instanceof PrimitiveDeclarationType && specialPrimitives.containsKey(((PrimitiveDeclarationType) type).getType());
+    }
+
+    private static void addUnfolded(Deque<DeclarationType> worklist, DeclarationType type) {
+        if (type instanceof UnionDeclarationType) {
+            worklist.addAll(((UnionDeclarationType) type).getTypes());
         } else {
-            HashSet<DeclarationType> key = new HashSet<>(types);
-            if (unionDeclarationTypeCache.containsKey(key)) {
-                return unionDeclarationTypeCache.get(key);
-            } else {
-                UnionDeclarationType result = new UnionDeclarationType(types);
-                unionDeclarationTypeCache.put(key, result);
-                return result;
-            }
+            worklist.add(type);
         }
     }
-    private Map<Set<DeclarationType>, UnionDeclarationType> unionDeclarationTypeCache = new HashMap<>();
 
     private void extractInterfaces(List<DeclarationType> types) {
         // Works in place, so no return.
@@ -9,10 +9,10 @@ import dk.webbies.tscreate.declarationReader.DeclarationParser;
 import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Erik Krogh Kristensen on 27-10-2015.
@@ -35,19 +35,19 @@ public class ClassInstanceUnnamedObjectReducer extends SingleTypeReducer<ClassIn
         return UnnamedObjectType.class;
     }
 
-    private Map<ClassType, Set<String>> classKeys = new HashMap<>();
+    private final Map<ClassType, Set<String>> classKeys = new ConcurrentHashMap<>();
 
     @Override
     public DeclarationType reduceIt(ClassInstanceType instance, UnnamedObjectType object) {
         LibraryClass libraryClass = instance.getClazz().getLibraryClass();
         if (!classKeys.containsKey(instance.getClazz())) {
             Set<String> set = ClassType.getFieldsInclSuper(instance.getClazz(), nativeClasses);
-            classKeys.put(instance.getClazz(), set);
             if (libraryClass != null) {
                 libraryClass.getInstances().stream().map(Snap.Obj::getPropertyMap).map(Map::keySet).forEach(set::addAll);
             } else {
                 instance.getClazz().getPrototypeFields().keySet().forEach(set::add);
             }
+            classKeys.put(instance.getClazz(), set); // Only put when done, another thread might be reading it.
         }
 
         Set<String> keySet = classKeys.get(instance.getClazz());
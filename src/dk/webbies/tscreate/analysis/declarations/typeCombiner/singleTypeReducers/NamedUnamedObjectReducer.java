@@ -12,6 +12,7 @@ import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.util.Util;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -95,7 +96,7 @@ public class NamedUnamedObjectReducer extends SingleTypeReducer<UnnamedObjectTyp
         return keysNotAccountedFor;
     }
 
-    private final Map<String, Set<String>> cache = new HashMap<>();
+    private final Map<String, Set<String>> cache = new ConcurrentHashMap<>();
     private Set<String> getKeysFromName(String name) {
         if (cache.containsKey(name)) {
             return cache.get(name);
@@ -46,7 +46,19 @@ public class CombinationType extends DeclarationType {
     }
 
     private DeclarationType combined = null;
+
+    boolean isCombined() {
+        return combined != null;
+    }
+
     public DeclarationType createCombined() {
+        return createCombined(false);
+    }
+
+    /**
+     * @param concurrently If other CombinationTypes are being combined at the same time (see CombinationTypeResolver).
+     */
+    DeclarationType createCombined(boolean concurrently) {
         this.hasBeenUnfolded = true;
 
         if (this.combined != null) {
@@ -57,32 +69,32 @@ public class CombinationType extends DeclarationType {
             combined = PrimitiveDeclarationType.Void(Collections.EMPTY_SET);
             return combined;
         } else {
-            Set<DeclarationType> unfolded = unfold(this);
-
-            if (combiner.combinationTypeCache.containsKey(unfolded)) {
-                DeclarationType result = combiner.combinationTypeCache.get(unfolded);
-                this.combined = result;
-                return result;
+            Set<DeclarationType> unfolded = unfold(this, concurrently);
+
+            // If another thread is combining the same types, this waits for that result, so the result is the same as when combining one at a time.
+            boolean[] computed = {false};
+            DeclarationType result = combiner.combinationTypeCache.computeIfAbsent(new TypeSetKey(unfolded), key -> {
+                computed[0] = true;
+                return combiner.combineTypes(unfolded, false);
+            });
+
+            if (computed[0]) {
+                this.types.clear();
+                this.types.add(result);
             }
 
-            DeclarationType result = combiner.combineTypes(unfolded, false);
-
-            this.types.clear();
-            this.types.add(result);
-
             this.combined = result;
 
-            combiner.combinationTypeCache.put(unfolded, result);
-
             return result;
         }
     }
 
     @SuppressWarnings("RedundantIfStatement")
-    private Set<DeclarationType> unfold(DeclarationType rootType) {
+    private Set<DeclarationType> unfold(DeclarationType rootType, boolean concurrently) {
         final Set<DeclarationType> result = new HashSet<>();
 
-        rootType.getReachable().stream().filter((subType) -> {
+        List<DeclarationType> reachable = concurrently ? getReachableConcurrently(rootType) : rootType.getReachable();
+        reachable.stream().filter((subType) -> {
             // We have the sub-types of these in the reachables, and we don't need the parents.
             if (subType instanceof UnresolvedDeclarationType) {
                 return false;
@@ -100,6 +112,25 @@ public class CombinationType extends DeclarationType {
         return result;
     }
 
+    // The same as getReachable(), except that it doesn't leave marks in the types, so several threads can do it at once.
+    private static List<DeclarationType> getReachableConcurrently(DeclarationType rootType) {
+        Set<DeclarationType> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<DeclarationType> result = new ArrayList<>();
+        Deque<DeclarationType> worklist = new ArrayDeque<>();
+        seen.add(rootType);
+        worklist.push(rootType);
+        while (!worklist.isEmpty()) {
+            DeclarationType type = worklist.pop();
+            result.add(type);
+            for (DeclarationType child : type.getChildren()) {
+                if (seen.add(child)) {
+                    worklist.push(child);
+                }
+            }
+        }
+        return result;
+    }
+
     private void addToUnfolded(DeclarationType type, Set<DeclarationType> acc) {
         if (combiner.originals.containsKey(type)) {
             combiner.originals.get(type).forEach(subType -> addToUnfolded(subType, acc));
@@ -109,8 +140,12 @@ public class CombinationType extends DeclarationType {
     }
 
     public DeclarationType getCombined() {
-        if (this.combined == null) {
-            List<DeclarationType> reachable = this.getReachable().stream().filter(CombinationType.class::isInstance).collect(Collectors.toList());
+        if (this.combined == null && combiner.getOptions().typeResolutionThreads > 1) {
+            CombinationTypeResolver.resolve(this, combiner.getOptions().typeResolutionThreads);
+            assert this.combined != null;
+        } else if (this.combined == null) {
+            // Everything below an already combined CombinationType has been combined as well, so there is no need to look there.
+            List<DeclarationType> reachable = this.getReachable(type -> type instanceof CombinationType && ((CombinationType) type).combined != null).stream().filter(CombinationType.class::isInstance).collect(Collectors.toList());
             List<List<DeclarationType>> levels = DeclarationType.getLevels(reachable);
             for (List<DeclarationType> level : levels) {
                 for (DeclarationType type : level) {
@@ -0,0 +1,171 @@
+package dk.webbies.tscreate.analysis.declarations.types;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Combines all the not yet combined CombinationTypes reachable from a type, in parallel.
+ *
+ * The types are grouped by their height in the graph of strongly connected components (of the types reachable from the root), and one height is combined at a time, starting with the leaves.
+ * Two CombinationTypes of the same height, that are not in the same component, can not reach each other, so they can be combined at the same time.
+ * The CombinationTypes of one component are combined together, one after the other.
+ *
+ * The graph is traversed with local visited-maps, since the marks of util.Tarjan are stored in the types, and can't be used by several threads at once.
+ */
+final class CombinationTypeResolver {
+    // With fewer types than this, it isn't worth the overhead of going parallel.
+    private static final int MIN_PARALLEL_TYPES = 64;
+
+    private static ForkJoinPool pool = null;
+
+    private CombinationTypeResolver() { }
+
+    static void resolve(CombinationType root, int threads) {
+        List<List<List<CombinationType>>> levels = getLevels(root);
+
+        int count = levels.stream().flatMap(List::stream).mapToInt(List::size).sum();
+        if (count < MIN_PARALLEL_TYPES) {
+            for (List<List<CombinationType>> level : levels) {
+                for (List<CombinationType> component : level) {
+                    component.forEach(type -> type.createCombined(false));
+                }
+            }
+            return;
+        }
+
+        ForkJoinPool pool = getPool(threads);
+        for (List<List<CombinationType>> level : levels) {
+            if (level.size() == 1) {
+                level.get(0).forEach(type -> type.createCombined(false));
+                continue;
+            }
+            try {
+                pool.submit(() -> level.parallelStream().forEach(component -> component.forEach(type -> type.createCombined(true)))).get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool(int threads) {
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    private static final class State {
+        private final DeclarationType type;
+        private final int index;
+        private int low;
+        private boolean onStack = true;
+        private int component = -1;
+        private Iterator<? extends DeclarationType> edges;
+
+        private State(DeclarationType type, int index) {
+            this.type = type;
+            this.index = index;
+            this.low = index;
+            this.edges = getEdges(type).iterator();
+        }
+    }
+
+    // Everything below an already combined CombinationType has been combined as well, so those are not followed (or included).
+    private static List<? extends DeclarationType> getEdges(DeclarationType type) {
+        List<DeclarationType> result = new ArrayList<>();
+        for (DeclarationType child : type.getChildren()) {
+            if (child != null && !(child instanceof CombinationType && ((CombinationType) child).isCombined())) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The not combined CombinationTypes reachable from root (including root), grouped by height (leaves first), and then by component.
+     */
+    private static List<List<List<CombinationType>>> getLevels(CombinationType root) {
+        // Tarjans algorithm, with an explicit stack.
+        Map<DeclarationType, State> states = new IdentityHashMap<>();
+        List<List<DeclarationType>> components = new ArrayList<>();
+        Deque<State> stack = new ArrayDeque<>();
+        Deque<State> callStack = new ArrayDeque<>();
+
+        State rootState = new State(root, 0);
+        states.put(root, rootState);
+        stack.push(rootState);
+        callStack.push(rootState);
+        while (!callStack.isEmpty()) {
+            State state = callStack.peek();
+            if (state.edges.hasNext()) {
+                DeclarationType child = state.edges.next();
+                State childState = states.get(child);
+                if (childState == null) {
+                    childState = new State(child, states.size());
+                    states.put(child, childState);
+                    stack.push(childState);
+                    callStack.push(childState);
+                } else if (childState.onStack) {
+                    state.low = Math.min(state.low, childState.index);
+                }
+                continue;
+            }
+
+            callStack.pop();
+            state.edges = null;
+            if (!callStack.isEmpty()) {
+                State parent = callStack.peek();
+                parent.low = Math.min(parent.low, state.low);
+            }
+            if (state.low == state.index) {
+                List<DeclarationType> component = new ArrayList<>();
+                State member;
+                do {
+                    member = stack.pop();
+                    member.onStack = false;
+                    member.component = components.size();
+                    component.add(member.type);
+                } while (member != state);
+                components.add(component);
+            }
+        }
+
+        // The components are found with the leaves first, so the height of every successor is known when a component is reached.
+        int[] heights = new int[components.size()];
+        List<List<List<CombinationType>>> levels = new ArrayList<>();
+        for (int i = 0; i < components.size(); i++) {
+            int height = 0;
+            List<CombinationType> combinationTypes = new ArrayList<>();
+            for (DeclarationType type : components.get(i)) {
+                for (DeclarationType child : getEdges(type)) {
+                    int childComponent = states.get(child).component;
+                    if (childComponent != i) {
+                        height = Math.max(height, heights[childComponent] + 1);
+                    }
+                }
+                if (type instanceof CombinationType) {
+                    combinationTypes.add((CombinationType) type);
+                }
+            }
+            heights[i] = height;
+
+            if (!combinationTypes.isEmpty()) {
+                while (levels.size() <= height) {
+                    levels.add(new ArrayList<>());
+                }
+                levels.get(height).add(combinationTypes);
+            }
+        }
+        levels.removeIf(List::isEmpty);
+        return levels;
+    }
+}
@@ -4,18 +4,20 @@ import dk.webbies.tscreate.util.MappedCollection;
 import dk.webbies.tscreate.util.Tarjan;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * Created by Erik Krogh Kristensen on 02-09-2015.
  */
 public abstract class DeclarationType {
-    private static int instanceCounter = 0;
-    public final int counter;
+    private static final AtomicInteger instanceCounter = new AtomicInteger(0);
+    public final int counter; // Unique, see TypeSetKey.
     private Set<String> names;
 
     public DeclarationType(Set<String> names) {
-        this.counter = instanceCounter++;
+        this.counter = instanceCounter.getAndIncrement();
         this.names = names;
     }
 
@@ -47,7 +49,7 @@ public abstract class DeclarationType {
 
     private FindReachableTarjanNode reachableTypesTarjanNode = new FindReachableTarjanNode();
 
-    private List<? extends DeclarationType> getChildren() {
+    List<? extends DeclarationType> getChildren() {
         if (this instanceof UnresolvedDeclarationType) {
             UnresolvedDeclarationType unresolved = (UnresolvedDeclarationType) this;
             if (unresolved.isResolved()) {
@@ -104,12 +106,21 @@ public abstract class DeclarationType {
         }
     }
 
+    private static final ThreadLocal<Tarjan<FindReachableTarjanNode>> tarjan = ThreadLocal.withInitial(Tarjan::new);
+
     public List<DeclarationType> getReachable() {
-        return new Tarjan<FindReachableTarjanNode>().getReachableSet(reachableTypesTarjanNode).stream().map(FindReachableTarjanNode::getType).collect(Collectors.toList());
+        return tarjan.get().getReachableSet(reachableTypesTarjanNode, FindReachableTarjanNode::getType, null);
+    }
+
+    /**
+     * Like getReachable(), except that the children of the types satisfying stopAt are not visited (the types themselves are still in the result).
+     */
+    public List<DeclarationType> getReachable(Predicate<DeclarationType> stopAt) {
+        return tarjan.get().getReachableSet(reachableTypesTarjanNode, FindReachableTarjanNode::getType, node -> stopAt.test(node.getType()));
     }
 
     public static List<List<DeclarationType>> getLevels(Collection<? extends DeclarationType> types) {
-        List<List<FindReachableTarjanNode>> levels = new Tarjan<FindReachableTarjanNode>().getLevels(new MappedCollection<>(types, (type) -> type.reachableTypesTarjanNode));
+        List<List<FindReachableTarjanNode>> levels = tarjan.get().getLevels(new MappedCollection<>(types, (type) -> type.reachableTypesTarjanNode));
         return levels.stream().map(nodes -> nodes.stream().map(FindReachableTarjanNode::getType).collect(Collectors.toList())).collect(Collectors.toList());
     }
 }
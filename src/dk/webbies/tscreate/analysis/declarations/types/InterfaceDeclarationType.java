@@ -1,6 +1,7 @@
 package dk.webbies.tscreate.analysis.declarations.types;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Erik Krogh Kristensen on 08-09-2015.
@@ -13,14 +14,14 @@ public class InterfaceDeclarationType extends DeclarationType {
 
     public final String name;
 
-    public static int interfaceCounter = 0;
+    public static final AtomicInteger interfaceCounter = new AtomicInteger(0); // Interfaces can be created concurrently, see CombinationTypeResolver.
 
     public InterfaceDeclarationType(String name, Set<String> names) {
         super(names);
         if (name != null) {
             this.name = name;
         } else {
-            this.name = "interface_" + interfaceCounter++;
+            this.name = "interface_" + interfaceCounter.getAndIncrement();
         }
     }
 
@@ -1,5 +1,7 @@
 package dk.webbies.tscreate.analysis.declarations.types;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -39,7 +41,15 @@ public class PrimitiveDeclarationType extends DeclarationType {
     }
 
     public static PrimitiveDeclarationType fromType(Type type, Set<String> names) {
-        return new PrimitiveDeclarationType(type, names);
+        return new PrimitiveDeclarationType(type, names, false);
+    }
+
+    /**
+     * A nameless primitive, that can be used everywhere that primitive without a name is needed (see TypeFactory, which has one per type).
+     * It can therefore not be given any names, that has to be done on a copy().
+     */
+    public static PrimitiveDeclarationType shared(Type type) {
+        return new PrimitiveDeclarationType(type, Collections.emptySet(), true);
     }
 
     public enum Type {
@@ -59,9 +69,43 @@ public class PrimitiveDeclarationType extends DeclarationType {
     }
 
     private final Type type;
-    private PrimitiveDeclarationType(Type type, Set<String> names) {
+    private final boolean shared;
+    private PrimitiveDeclarationType(Type type, Set<String> names, boolean shared) {
         super(names);
         this.type = type;
+        this.shared = shared;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    public PrimitiveDeclarationType copy() {
+        return new PrimitiveDeclarationType(type, new HashSet<>(getNames()), false);
+    }
+
+    @Override
+    public void addName(String name) {
+        checkNotShared();
+        super.addName(name);
+    }
+
+    @Override
+    public void addNames(Set<String> names) {
+        checkNotShared();
+        super.addNames(names);
+    }
+
+    @Override
+    public void setNames(Set<String> names) {
+        checkNotShared();
+        super.setNames(names);
+    }
+
+    private void checkNotShared() {
+        if (shared) {
+            throw new RuntimeException("A shared primitive cannot be given names, copy() it first");
+        }
     }
 
     @Override
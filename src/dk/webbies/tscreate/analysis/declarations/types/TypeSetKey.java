@@ -0,0 +1,55 @@
+package dk.webbies.tscreate.analysis.declarations.types;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable set of types (by identity), used as the key in the caches of combined types.
+ *
+ * The types are sorted by their (unique) counter, so two keys of the same types are equal no matter the order the types were added in, and the hash is only computed once.
+ */
+public final class TypeSetKey {
+    private final DeclarationType[] types;
+    private final int hash;
+
+    public TypeSetKey(Collection<? extends DeclarationType> types) {
+        DeclarationType[] array = types.toArray(new DeclarationType[types.size()]);
+        Arrays.sort(array, (one, two) -> Integer.compare(one.counter, two.counter));
+
+        // Removing duplicates, it is a set.
+        int size = 0;
+        for (DeclarationType type : array) {
+            if (size == 0 || array[size - 1] != type) {
+                array[size++] = type;
+            }
+        }
+        this.types = size == array.length ? array : Arrays.copyOf(array, size);
+
+        int hash = 1;
+        for (DeclarationType type : this.types) {
+            hash = 31 * hash + type.counter;
+        }
+        this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TypeSetKey)) return false;
+        TypeSetKey other = (TypeSetKey) o;
+        if (hash != other.hash || types.length != other.types.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != other.types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -11,13 +11,14 @@ import dk.webbies.tscreate.declarationReader.DeclarationParser;
 import dk.webbies.tscreate.jsnap.JSNAPUtil;
 import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.paser.AST.FunctionExpression;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.util.Pair;
 import dk.webbies.tscreate.util.Util;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -235,51 +236,127 @@ public class JSDocParser {
         System.out.println(tags.size());
     }
 
+    private static final Gson gson = new Gson();
+
+    // The parsed tags of every comment seen so far, by the text of the comment. The same comment is often seen many times (for every closure of a function).
+    private static final Map<String, List<Tag>> parsedComments = new ConcurrentHashMap<>();
+
+    // Comments are not sent to doctrine in batches smaller than this, it isn't worth starting another process for fewer.
+    private static final int MIN_BATCH_SIZE = 50;
+
     private static List<Tag> parseComment(String doc) {
+        List<Tag> result = parsedComments.get(doc);
+        if (result != null) {
+            return result;
+        }
+        parseComments(singletonList(doc));
+        return parsedComments.get(doc);
+    }
+
+    /**
+     * Parses every JSDoc comment in the program (both on functions and on members), so the comments are parsed in a few big batches, instead of one at a time as they are needed.
+     */
+    public static void parseAll(List<FunctionExpression> functions) {
+        List<String> docs = new ArrayList<>();
+        for (FunctionExpression function : functions) {
+            if (function.jsDoc != null) {
+                docs.add(function.jsDoc.value);
+            }
+            for (Comment comment : function.memberJsDocs.values()) {
+                docs.add(comment.value);
+            }
+        }
+        parseComments(docs);
+    }
+
+    // Splits the comments not already parsed into batches, and parses them with a doctrine process each.
+    private static void parseComments(Collection<String> docs) {
+        List<String> toParse = docs.stream().filter(doc -> !parsedComments.containsKey(doc)).distinct().collect(Collectors.toList());
+        if (toParse.isEmpty()) {
+            return;
+        }
+
+        int batches = Math.max(1, Math.min(NodeWorkerPool.maxWorkers, toParse.size() / MIN_BATCH_SIZE));
+        List<NodeRunner> runners;
         try {
-            return new Gson().fromJson(NodeRunner.getInstance().parseComment(doc), JSDoc.class).tags;
+            runners = NodeRunner.getInstances(batches);
         } catch (IOException e) {
-            throw new RuntimeException();
+            throw new RuntimeException(e);
+        }
+        int batchSize = (toParse.size() + batches - 1) / batches;
+
+        Runnable[] runs = new Runnable[batches];
+        for (int i = 0; i < batches; i++) {
+            List<String> batch = toParse.subList(Math.min(i * batchSize, toParse.size()), Math.min((i + 1) * batchSize, toParse.size()));
+            NodeRunner runner = runners.get(i);
+            runs[i] = () -> {
+                try {
+                    List<String> results = runner.parseComments(batch);
+                    for (int j = 0; j < batch.size(); j++) {
+                        parsedComments.put(batch.get(j), gson.fromJson(results.get(j), JSDoc.class).tags);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+        try {
+            Util.runAll(runs);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
         }
     }
 
+    // A doctrine-cli process. Comments are written separated by \0, and the result for each comment is a line of JSON.
     private static final class NodeRunner {
-        static NodeRunner instance = null;
+        private static final List<NodeRunner> instances = new ArrayList<>();
         private final Process process;
+        private final Writer out;
         private final FlushableStreamGobbler inputGobbler;
 
-        public synchronized static NodeRunner getInstance() throws IOException {
-            if (instance == null) {
-                instance = new NodeRunner();
+        public static List<NodeRunner> getInstances(int count) throws IOException {
+            synchronized (instances) {
+                while (instances.size() < count) {
+                    instances.add(new NodeRunner());
+                }
+                return new ArrayList<>(instances.subList(0, count));
             }
-            return instance;
         }
 
         private NodeRunner() throws IOException {
             process = Runtime.getRuntime().exec("node " + "node_modules/doctrine-cli/index.js --unwrap --sloppy --multiple");
+            out = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
             inputGobbler = new FlushableStreamGobbler(process.getInputStream());
             new Util.StreamGobbler(process.getErrorStream(), new CountDownLatch(1));
         }
 
-        synchronized String parseComment(String doc) throws IOException {
-            process.getOutputStream().write(doc.getBytes());
-            process.getOutputStream().write(0);
-            process.getOutputStream().flush();
+        // The whole batch is written before the results are read, the gobbler keeps reading the results meanwhile, so the process never blocks on a full pipe.
+        synchronized List<String> parseComments(List<String> docs) throws IOException {
+            for (String doc : docs) {
+                out.write(doc);
+                out.write(0);
+            }
+            out.flush();
 
+            List<String> results = new ArrayList<>(docs.size());
             try {
-                return inputGobbler.getResult();
+                for (int i = 0; i < docs.size(); i++) {
+                    results.add(inputGobbler.getResult());
+                }
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            return results;
         }
     }
 
     private static class FlushableStreamGobbler extends Thread {
-        BufferedInputStream is;
+        BufferedReader reader;
         LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
 
         private FlushableStreamGobbler(InputStream is) {
-            this.is = new BufferedInputStream(is);
+            this.reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+            this.setDaemon(true);
             this.start();
         }
 
@@ -290,16 +367,9 @@ public class JSDocParser {
         @Override
         public void run() {
             try {
-                StringBuilder builder = new StringBuilder();
-                while (true) {
-                    char character = (char) is.read();
-//                    System.out.println("Read: " + Character.toString(character));
-                    if (Character.toString(character).equals("\n")) {
-                        queue.put(builder.toString());
-                        builder = new StringBuilder();
-                    } else {
-                        builder.append(character);
-                    }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    queue.put(line);
                 }
             } catch (InterruptedException | IOException ioe) {
                 ioe.printStackTrace();
@@ -8,15 +8,19 @@ import dk.webbies.tscreate.analysis.methods.mixed.MixedTypeAnalysis;
 import dk.webbies.tscreate.analysis.methods.pureSubsets.PureSubsetsTypeAnalysis;
 import dk.webbies.tscreate.analysis.unionFind.FunctionNode;
 import dk.webbies.tscreate.analysis.unionFind.IncludeNode;
+import dk.webbies.tscreate.analysis.unionFind.UnionBatch;
 import dk.webbies.tscreate.analysis.unionFind.UnionFindSolver;
 import dk.webbies.tscreate.declarationReader.DeclarationParser;
 import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.paser.AST.AstNode;
+import dk.webbies.tscreate.util.Util;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by erik1 on 24-02-2016.
@@ -27,8 +31,9 @@ public class CombinedTypeAnalysis implements TypeAnalysis {
     private final TypeFactory typeFactory;
 
     public CombinedTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, DeclarationParser.NativeClassesMap nativeClasses, boolean upperBoundMethod, Map<AstNode, Set<Snap.Obj>> callsites) {
-        mixed = new MixedTypeAnalysis(libraryClasses, options, globalObject, nativeClasses, upperBoundMethod, callsites);
-        subset = new PureSubsetsTypeAnalysis(libraryClasses, options, globalObject, nativeClasses, callsites);
+        MixedTypeAnalysis.Precomputed precomputed = new MixedTypeAnalysis.Precomputed(globalObject, libraryClasses);
+        mixed = new MixedTypeAnalysis(libraryClasses, options, globalObject, nativeClasses, upperBoundMethod, callsites, precomputed);
+        subset = new PureSubsetsTypeAnalysis(libraryClasses, options, globalObject, nativeClasses, callsites, precomputed);
 
         typeFactory = new CombinerTypeFactory(globalObject, libraryClasses, options, nativeClasses, this);
         mixed.typeFactory = typeFactory;
@@ -37,12 +42,39 @@ public class CombinedTypeAnalysis implements TypeAnalysis {
 
     @Override
     public void analyseFunctions() {
+        if (mixed.getOptions().combinedConstraintsConcurrently) {
+            analyseFunctionsConcurrently();
+            return;
+        }
         System.out.println("Running combined, mixed");
         mixed.analyseFunctions();
         System.out.println("Running combined, subsets");
         subset.analyseFunctions();
     }
 
+    // The constraints of the two analyses are generated at the same time (each on its own solver).
+    // The solving and the type inference are done afterwards, one analysis at a time, in the same order as above, since they share the TypeFactory (and update the LibraryClasses).
+    private void analyseFunctionsConcurrently() {
+        System.out.println("Running combined, generating the constraints of mixed and subsets concurrently");
+        AtomicReference<List<UnionBatch>> mixedBatches = new AtomicReference<>();
+        AtomicReference<List<UnionBatch>> subsetBatches = new AtomicReference<>();
+        try {
+            Util.runAll(
+                    () -> mixedBatches.set(mixed.recordConstraints()),
+                    () -> subsetBatches.set(subset.recordConstraints())
+            );
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+
+        System.out.println("Running combined, mixed");
+        mixed.analyseFunctions(mixedBatches.get());
+        System.out.println("Running combined, subsets");
+        subset.analyseFunctions(subsetBatches.get());
+    }
+
     @Override
     public TypeFactory getTypeFactory() {
         return typeFactory;
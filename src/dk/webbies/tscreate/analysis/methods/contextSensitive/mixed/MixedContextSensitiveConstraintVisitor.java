@@ -497,6 +497,14 @@ public class MixedContextSensitiveConstraintVisitor implements ExpressionVisitor
             this.fields = fields;
         }
 
+        @Override
+        public int getDependencies() {
+            if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
+                return 0;
+            }
+            return UnionFindCallback.FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
@@ -551,6 +559,11 @@ public class MixedContextSensitiveConstraintVisitor implements ExpressionVisitor
             this.heapFactory = heapFactory;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.PROTOTYPES | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             List<UnionFeature> features = UnionFeature.getReachable(expressionNode.getFeature());
@@ -607,6 +620,11 @@ public class MixedContextSensitiveConstraintVisitor implements ExpressionVisitor
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = getFunctionClosures(function, seenHeap);
@@ -699,6 +717,11 @@ public class MixedContextSensitiveConstraintVisitor implements ExpressionVisitor
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = getFunctionClosures(functionNode, seenHeap);
@@ -23,6 +23,7 @@ public class MixedContextSensitiveTypeAnalysis extends MixedTypeAnalysis {
     public MixedContextSensitiveTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, NativeClassesMap nativeClasses, boolean upperBoundMethod, Map<AstNode, Set<Snap.Obj>> callsites) {
         super(libraryClasses, options, globalObject, nativeClasses, upperBoundMethod, callsites);
         this.upperBoundMethod = upperBoundMethod;
+        this.environmentSummaries = new IdentityHashMap<>();
     }
 
     @Override
@@ -461,6 +461,14 @@ public class PureSubsetsContextSensitiveConstraintVisitor implements ExpressionV
             this.fields = fields;
         }
 
+        @Override
+        public int getDependencies() {
+            if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
+                return 0;
+            }
+            return UnionFindCallback.FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
@@ -515,6 +523,11 @@ public class PureSubsetsContextSensitiveConstraintVisitor implements ExpressionV
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = MixedConstraintVisitor.getFunctionClosures(function, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -603,6 +616,11 @@ public class PureSubsetsContextSensitiveConstraintVisitor implements ExpressionV
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = MixedConstraintVisitor.getFunctionClosures(functionNode, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
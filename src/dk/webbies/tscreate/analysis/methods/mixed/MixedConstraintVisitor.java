@@ -434,6 +434,11 @@ public class MixedConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
 
         private boolean isArrayAccess = false;
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.PROTOTYPES | UnionFindCallback.PRIMITIVES | UnionFindCallback.OBJECT_FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             boolean run = false;
@@ -552,6 +557,14 @@ public class MixedConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.fields = fields;
         }
 
+        @Override
+        public int getDependencies() {
+            if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
+                return 0;
+            }
+            return UnionFindCallback.FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
@@ -606,6 +619,11 @@ public class MixedConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.heapFactory = heapFactory;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.PROTOTYPES | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             List<UnionFeature> features = UnionFeature.getReachable(expressionNode.getFeature());
@@ -664,6 +682,11 @@ public class MixedConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = getFunctionClosures(function, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -758,6 +781,11 @@ public class MixedConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = getFunctionClosures(functionNode, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -5,6 +5,7 @@ import dk.webbies.tscreate.Options;
 import dk.webbies.tscreate.analysis.*;
 import dk.webbies.tscreate.analysis.unionFind.*;
 import dk.webbies.tscreate.declarationReader.DeclarationParser.NativeClassesMap;
+import dk.webbies.tscreate.jsnap.EnvironmentIndex;
 import dk.webbies.tscreate.jsnap.JSNAPUtil;
 import dk.webbies.tscreate.jsnap.JSNAPUtil.RecordedCall;
 import dk.webbies.tscreate.jsnap.Snap;
@@ -12,6 +13,8 @@ import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.paser.AST.*;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -23,6 +26,11 @@ import java.util.stream.Collectors;
 public class MixedTypeAnalysis implements TypeAnalysis {
     public final Map<Snap.Obj, LibraryClass> libraryClasses;
     final Snap.Obj globalObject;
+    private final Map<String, Snap.Property> globalValues; // The properties of the global object (including its prototypes), shared by the analysis of every closure.
+    private final EnvironmentIndex environments;
+    // The context sensitive analyses analyse the same closure once for every function it is reached from. Those set this, so what the identifiers resolve to is only found once per closure.
+    // The constraints themselves are still generated again every time. Keyed by identity, as Snap.Obj equality only compares keys.
+    protected Map<Snap.Obj, ResolveEnvironmentVisitor.Summary> environmentSummaries = null;
     public HeapValueFactory heapFactory;
     public final UnionFindSolver solver;
 
@@ -39,15 +47,21 @@ public class MixedTypeAnalysis implements TypeAnalysis {
     protected Map<AstNode, Set<Snap.Obj>> callsites;
 
     public MixedTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, NativeClassesMap nativeClasses, boolean upperBoundMethod, Map<AstNode, Set<Snap.Obj>> callsites) {
+        this(libraryClasses, options, globalObject, nativeClasses, upperBoundMethod, callsites, new Precomputed(globalObject, libraryClasses));
+    }
+
+    public MixedTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, NativeClassesMap nativeClasses, boolean upperBoundMethod, Map<AstNode, Set<Snap.Obj>> callsites, Precomputed precomputed) {
         this.upperBoundMethod = upperBoundMethod;
         this.callsites = callsites;
         this.solver = new UnionFindSolver(this);
         this.libraryClasses = libraryClasses;
         this.options = options;
         this.globalObject = globalObject;
+        this.globalValues = precomputed.globalValues;
+        this.environments = precomputed.environments;
         this.nativeClasses = nativeClasses;
-        this.prototypeFunctions = createPrototypeFunctionMap(libraryClasses);
-        List<Snap.Obj> functions = getAllFunctionInstances(globalObject);
+        this.prototypeFunctions = precomputed.prototypeFunctions;
+        List<Snap.Obj> functions = precomputed.functions;
         this.functionNodes = functions.stream().filter(closure -> closure.function.type.equals("user") || closure.function.type.equals("bind")).collect(Collectors.toMap(Function.identity(), obj -> FunctionNode.create(obj, solver)));
         this.nativeFunctions = functions.stream().filter(closure -> !(closure.function.type.equals("user") || closure.function.type.equals("bind"))).filter(closure -> !closure.function.callSignatures.isEmpty()).collect(Collectors.toList());
 
@@ -56,6 +70,23 @@ public class MixedTypeAnalysis implements TypeAnalysis {
         this.typeFactory = new TypeFactory(globalObject, libraryClasses, options, nativeClasses, this);
     }
 
+    /**
+     * What the analysis needs from the snapshot, that doesn't depend on the solver (so it can be shared by several analyses of the same snapshot, see CombinedTypeAnalysis).
+     * Nothing in here is changed after it has been created, except the EnvironmentIndex, which is thread-safe.
+     */
+    public static final class Precomputed {
+        private final List<Snap.Obj> functions;
+        private final Map<Snap.Obj, LibraryClass> prototypeFunctions;
+        private final Map<String, Snap.Property> globalValues;
+        private final EnvironmentIndex environments = new EnvironmentIndex();
+
+        public Precomputed(Snap.Obj globalObject, Map<Snap.Obj, LibraryClass> libraryClasses) {
+            this.functions = Collections.unmodifiableList(getAllFunctionInstances(globalObject));
+            this.prototypeFunctions = Collections.unmodifiableMap(createPrototypeFunctionMap(libraryClasses));
+            this.globalValues = Collections.unmodifiableMap(JSNAPUtil.createPropertyMap(globalObject));
+        }
+    }
+
     @Override
     public NativeClassesMap getNativeClasses() {
         return nativeClasses;
@@ -110,26 +141,56 @@ public class MixedTypeAnalysis implements TypeAnalysis {
     }
 
     public void analyseFunctions() {
+        if (options.constraintGenerationThreads > 1) {
+            analyseFunctions(recordConstraints());
+            return;
+        }
+
         System.out.println("Analyzing " + functionNodes.size() + " functions");
 
         int counter = 0;
         for (Snap.Obj closure : functionNodes.keySet()) {
             System.out.println("Analysis: " + ++counter + "/" + functionNodes.size());
-            FunctionNode functionNode = functionNodes.get(closure);
+            generateConstraints(closure);
 
-            if (options.skipStaticAnalysisWhenPossible) {
-                if (canGetEverythingFromRecordedCalls(closure)) {
-                    addCallsToFunction(closure, solver, functionNode, heapFactory);
-                } else {
-                    analyse(closure, functionNodes, solver, functionNode, heapFactory);
-                }
-            } else {
-                analyse(closure, functionNodes, solver, functionNode, heapFactory);
-            }
+            solver.finish();
+        }
+
+        resolveFunctions();
+    }
+
+    /**
+     * Generates the constraints for every function, without touching the solver (in parallel if options.constraintGenerationThreads is more than 1).
+     * The result is given to analyseFunctions(batches).
+     */
+    public List<UnionBatch> recordConstraints() {
+        List<Snap.Obj> closures = new ArrayList<>(functionNodes.keySet());
+        if (options.constraintGenerationThreads > 1) {
+            return generateConstraintsInParallel(closures);
+        }
+        return closures.stream().map(closure -> solver.record(() -> generateConstraints(closure))).collect(Collectors.toList());
+    }
+
+    /**
+     * Like analyseFunctions(), but with the constraints already generated by recordConstraints().
+     */
+    public void analyseFunctions(List<UnionBatch> batches) {
+        System.out.println("Analyzing " + functionNodes.size() + " functions");
+
+        List<Snap.Obj> closures = new ArrayList<>(functionNodes.keySet());
+        assert batches.size() == closures.size();
+        for (int i = 0; i < closures.size(); i++) {
+            System.out.println("Analysis: " + (i + 1) + "/" + functionNodes.size());
+            solver.apply(batches.get(i));
+            batches.set(i, null);
 
             solver.finish();
         }
 
+        resolveFunctions();
+    }
+
+    private void resolveFunctions() {
         System.out.println("Resolving native functions");
 
         for (Snap.Obj closure : this.nativeFunctions) {
@@ -150,7 +211,7 @@ public class MixedTypeAnalysis implements TypeAnalysis {
 
         this.analysisFinished = true;
 
-        counter = 0;
+        int counter = 0;
         for (Map.Entry<Snap.Obj, FunctionNode> entry : functionNodes.entrySet()) {
             System.out.println("Inference: " + ++counter + "/" + functionNodes.size());
             Snap.Obj closure = entry.getKey();
@@ -170,6 +231,42 @@ public class MixedTypeAnalysis implements TypeAnalysis {
 
     }
 
+    private void generateConstraints(Snap.Obj closure) {
+        FunctionNode functionNode = functionNodes.get(closure);
+
+        if (options.skipStaticAnalysisWhenPossible) {
+            if (canGetEverythingFromRecordedCalls(closure)) {
+                addCallsToFunction(closure, solver, functionNode, heapFactory);
+            } else {
+                analyse(closure, functionNodes, solver, functionNode, heapFactory);
+            }
+        } else {
+            analyse(closure, functionNodes, solver, functionNode, heapFactory);
+        }
+    }
+
+    /**
+     * Generates the constraints for every closure on a ForkJoinPool. The unions are recorded, so the solver is not touched, the i'th batch belongs to the i'th closure.
+     */
+    private List<UnionBatch> generateConstraintsInParallel(List<Snap.Obj> closures) {
+        System.out.println("Generating constraints using " + options.constraintGenerationThreads + " threads");
+        ForkJoinPool pool = new ForkJoinPool(options.constraintGenerationThreads);
+        try {
+            return pool.submit(() ->
+                    closures.parallelStream().map(closure -> solver.record(() -> generateConstraints(closure))).collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("INTERRUPT!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     protected boolean canGetEverythingFromRecordedCalls(Snap.Obj closure) {
         if (closure.recordedCalls == null) {
             return false;
@@ -253,19 +350,7 @@ public class MixedTypeAnalysis implements TypeAnalysis {
             closure.function.astNode = closure.function.target.function.astNode;
         }
 
-        Map<String, Snap.Property> values = new HashMap<>();
-        Snap.Obj env = closure.env;
-        while (env != null) {
-            if (env.properties != null) {
-                for (Snap.Property property : env.properties) {
-                    if (values.containsKey(property.name)) {
-                        continue;
-                    }
-                    values.put(property.name, property);
-                }
-            }
-            env = env.env;
-        }
+        Map<String, Snap.Property> values = environments.getBindings(closure.env);
 
         if (prototypeFunctions.containsKey(closure)) {
             LibraryClass libraryClass = prototypeFunctions.get(closure);
@@ -301,11 +386,18 @@ public class MixedTypeAnalysis implements TypeAnalysis {
 
         Map<Identifier, UnionNode> identifierMap = new HashMap<>();
 
-        new ResolveEnvironmentVisitor(closure, closure.function.astNode, solver, identifierMap, values, JSNAPUtil.createPropertyMap(this.globalObject), this.globalObject, heapFactory, libraryClasses, options).visit(closure.function.astNode);
+        getEnvironmentSummary(closure, values).apply(solver, identifierMap, heapFactory, options);
 
         applyConstraints(closure, functionNodes, solver, functionNode, heapFactory, identifierMap);
     }
 
+    private ResolveEnvironmentVisitor.Summary getEnvironmentSummary(Snap.Obj closure, Map<String, Snap.Property> values) {
+        if (environmentSummaries == null) {
+            return ResolveEnvironmentVisitor.summarize(closure.function.astNode, values, this.globalValues);
+        }
+        return environmentSummaries.computeIfAbsent(closure, key -> ResolveEnvironmentVisitor.summarize(closure.function.astNode, values, this.globalValues));
+    }
+
     public void applyConstraints(Snap.Obj closure, Map<Snap.Obj, FunctionNode> functionNodes, UnionFindSolver solver, FunctionNode functionNode, HeapValueFactory heapFactory, Map<Identifier, UnionNode> identifierMap) {
         new MixedConstraintVisitor(closure, solver, identifierMap, functionNode, functionNodes, heapFactory, this, this.nativeTypeFactory, this.upperBoundMethod, callsites).visit(closure.function.astNode);
     }
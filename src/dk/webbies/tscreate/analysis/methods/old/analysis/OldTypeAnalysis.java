@@ -95,7 +95,7 @@ public class OldTypeAnalysis implements dk.webbies.tscreate.analysis.TypeAnalysi
             int counter = 0;
             for (Snap.Obj functionClosure : functions) {
 //                System.out.println(++counter + "/" + functions.size());
-                UnionFindSolver solver = new UnionFindSolver(this);
+                UnionFindSolver solver = new UnionFindSolver(this, this.solver);
 
                 // This way, all the other functions will be "emptied" out, so that the result of them doesn't affect the analysis of this function.
                 FunctionNode functionNode = functionNodes.get(functionClosure);
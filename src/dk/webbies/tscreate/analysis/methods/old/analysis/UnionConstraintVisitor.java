@@ -485,6 +485,14 @@ public class UnionConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.fields = fields;
         }
 
+        @Override
+        public int getDependencies() {
+            if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
+                return 0;
+            }
+            return UnionFindCallback.FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
@@ -539,6 +547,11 @@ public class UnionConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.heapFactory = heapFactory;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.PROTOTYPES | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             List<UnionFeature> features = UnionFeature.getReachable(expressionNode.getFeature());
@@ -594,6 +607,11 @@ public class UnionConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = getFunctionClosures(function, seenHeap);
@@ -676,6 +694,11 @@ public class UnionConstraintVisitor implements ExpressionVisitor<UnionNode>, Sta
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = getFunctionClosures(functionNode, seenHeap);
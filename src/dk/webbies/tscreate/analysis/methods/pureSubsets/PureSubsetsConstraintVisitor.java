@@ -462,6 +462,14 @@ public class PureSubsetsConstraintVisitor implements ExpressionVisitor<UnionNode
             this.fields = fields;
         }
 
+        @Override
+        public int getDependencies() {
+            if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
+                return 0;
+            }
+            return UnionFindCallback.FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             if (!typeAnalysis.getOptions().resolveIncludesWithFields) {
@@ -516,6 +524,11 @@ public class PureSubsetsConstraintVisitor implements ExpressionVisitor<UnionNode
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = MixedConstraintVisitor.getFunctionClosures(function, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -607,6 +620,11 @@ public class PureSubsetsConstraintVisitor implements ExpressionVisitor<UnionNode
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = MixedConstraintVisitor.getFunctionClosures(functionNode, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
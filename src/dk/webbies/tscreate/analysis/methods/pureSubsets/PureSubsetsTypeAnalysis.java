@@ -24,6 +24,10 @@ public class PureSubsetsTypeAnalysis extends MixedTypeAnalysis {
         super(libraryClasses, options, globalObject, nativeClasses, false, callsites);
     }
 
+    public PureSubsetsTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, DeclarationParser.NativeClassesMap nativeClasses, Map<AstNode, Set<Snap.Obj>> callsites, Precomputed precomputed) {
+        super(libraryClasses, options, globalObject, nativeClasses, false, callsites, precomputed);
+    }
+
     @Override
     public void applyConstraints(Snap.Obj closure, Map<Snap.Obj, FunctionNode> functionNodes, UnionFindSolver solver, FunctionNode functionNode, HeapValueFactory heapFactory, Map<Identifier, UnionNode> identifierMap) {
         new PureSubsetsConstraintVisitor(closure, solver, identifierMap, functionNode, functionNodes, heapFactory, this, this.nativeTypeFactory, callsites).visit(closure.function.astNode);
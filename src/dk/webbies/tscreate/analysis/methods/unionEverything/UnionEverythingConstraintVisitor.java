@@ -124,6 +124,11 @@ public class UnionEverythingConstraintVisitor extends MixedConstraintVisitor {
             this.solver = solver;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.OBJECT_FIELDS | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             // I simply refuse to unify every string-property of any object. It absolutely destroys the analysis.
@@ -244,6 +249,11 @@ public class UnionEverythingConstraintVisitor extends MixedConstraintVisitor {
             this.callResolver.constructorCalls = true;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functionClosures = getFunctionClosures(function, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -330,6 +340,11 @@ public class UnionEverythingConstraintVisitor extends MixedConstraintVisitor {
             return result;
         }
 
+        @Override
+        public int getDependencies() {
+            return UnionFindCallback.FUNCTION | UnionFindCallback.INCLUDES;
+        }
+
         @Override
         public void run() {
             Collection<Snap.Obj> functions = getFunctionClosures(functionNode, seenHeap, callExpression, callsites, typeAnalysis.getOptions());
@@ -24,6 +24,7 @@ public class UnionRecursivelyTypeAnalysis extends MixedTypeAnalysis {
     public UnionRecursivelyTypeAnalysis(Map<Snap.Obj, LibraryClass> libraryClasses, Options options, Snap.Obj globalObject, NativeClassesMap nativeClasses, Map<AstNode, Set<Snap.Obj>> callsites) {
         super(libraryClasses, options, globalObject, nativeClasses, false, callsites);
         this.globalObject = globalObject;
+        this.environmentSummaries = new IdentityHashMap<>();
     }
 
     @Override
@@ -42,5 +42,8 @@ public class IncludeNode extends UnionNode {
             }
             otherClass.includesUs.add(node);
         }
+        if (!this.nodes.isEmpty()) {
+            unionClass.solver.markIncludesChanged(unionClass);
+        }
     }
 }
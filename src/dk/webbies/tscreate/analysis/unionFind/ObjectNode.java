@@ -40,22 +40,24 @@ public class ObjectNode extends UnionNodeWithFields {
         }
     }
     public void addField(String fieldName, UnionNode node) {
-        if (this.unionClass != null) {
-            if (this.unionClass.getFeature().objectFields == null) {
-                this.unionClass.getFeature().objectFields = new HashMap<>();
+        UnionClass unionClass = getUnionClassIfRepresentative();
+        if (unionClass != null) {
+            if (unionClass.getFeature().objectFields == null) {
+                unionClass.getFeature().objectFields = new HashMap<>();
             }
-            this.unionClass.getFeature().objectFields.put(fieldName, node);
+            unionClass.getFeature().objectFields.put(fieldName, node);
         }
         this.objectFields.put(fieldName, node);
         super.addField(FIELD_PREFIX + fieldName, node);
     }
 
     public void setTypeName(String typeName) {
-        if (this.unionClass != null) {
-            if (this.unionClass.getFeature().typeNames == null) {
-                this.unionClass.getFeature().typeNames = new HashSet<>();
+        UnionClass unionClass = getUnionClassIfRepresentative();
+        if (unionClass != null) {
+            if (unionClass.getFeature().typeNames == null) {
+                unionClass.getFeature().typeNames = new HashSet<>();
             }
-            this.unionClass.getFeature().typeNames.add(new Pair<>(typeName, isTypeNameBaseType));
+            unionClass.getFeature().typeNames.add(new Pair<>(typeName, isTypeNameBaseType));
         }
         this.typeName = typeName;
     }
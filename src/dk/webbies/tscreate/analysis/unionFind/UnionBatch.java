@@ -0,0 +1,71 @@
+package dk.webbies.tscreate.analysis.unionFind;
+
+import java.util.Arrays;
+
+/**
+ * The unions, callback-registrations and actions done while recording with {@link UnionFindSolver#record(Runnable)}.
+ *
+ * Nothing in the forest is touched while recording, so several batches can be recorded at the same time (by different threads).
+ * The batch is afterwards applied to the solver with {@link UnionFindSolver#apply(UnionBatch)}, in the order the operations were recorded.
+ * A batch can also be shared by other batches (see {@link UnionFindSolver#applyOnce(UnionBatch)}), it is then applied where the first of them is applied.
+ */
+public final class UnionBatch {
+    // Operation i is firsts[i] unioned with seconds[i], or if seconds[i] is a UnionFindCallback, the callback registered on firsts[i], or if seconds[i] is a Runnable, an action to run (see UnionFindSolver.whenApplied), or if seconds[i] is a UnionBatch, that batch (if it isn't applied already).
+    private UnionNode[] firsts = new UnionNode[16];
+    private Object[] seconds = new Object[16];
+    private int size = 0;
+    private boolean applied = false;
+
+    void addUnion(UnionNode one, UnionNode two) {
+        add(one, two);
+    }
+
+    void addCallback(UnionNode node, UnionFindCallback callback) {
+        add(node, callback);
+    }
+
+    void addAction(Runnable action) {
+        add(null, action);
+    }
+
+    void addBatch(UnionBatch batch) {
+        add(null, batch);
+    }
+
+    private void add(UnionNode first, Object second) {
+        if (size == firsts.length) {
+            firsts = Arrays.copyOf(firsts, size * 2);
+            seconds = Arrays.copyOf(seconds, size * 2);
+        }
+        firsts[size] = first;
+        seconds[size] = second;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void applyTo(UnionFindSolver solver) {
+        if (applied) {
+            return;
+        }
+        applied = true; // Before applying the operations, as a shared batch can (indirectly) include itself.
+        for (int i = 0; i < size; i++) {
+            Object second = seconds[i];
+            if (second instanceof UnionBatch) {
+                ((UnionBatch) second).applyTo(solver);
+            } else if (second instanceof UnionFindCallback) {
+                solver.runWhenChanged(firsts[i], (UnionFindCallback) second);
+            } else if (second instanceof Runnable) {
+                ((Runnable) second).run();
+            } else {
+                solver.union(firsts[i], (UnionNode) second);
+            }
+        }
+        // A batch is only applied once, and the nodes should be collectable after that.
+        firsts = null;
+        seconds = null;
+        size = 0;
+    }
+}
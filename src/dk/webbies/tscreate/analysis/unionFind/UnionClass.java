@@ -14,16 +14,13 @@ import java.util.stream.Collectors;
 public final class UnionClass {
     public UnionFindSolver solver;
     private Map<String, UnionNode> fields = null;
-    public List<UnionFindCallback> callbacks = null;
+    public Set<UnionFindCallback> callbacks = null; // Without duplicates (by equals), so a callback registered more than once is only kept once.
 
     private UnionFeature feature = new UnionFeature(this);
 
     public Set<UnionNode> includes = null;
     public Set<UnionNode> includesUs = null;
 
-    private int hasRunAtIteration = -1;
-    private boolean waitingForCallback = false;
-
     public UnionNode representative;
 
     public UnionClass(UnionFindSolver solver, UnionNode node) {
@@ -45,7 +42,9 @@ public final class UnionClass {
             throw new NullPointerException();
         }
 
-        other.representative.unionClass = null;
+        // What the callbacks on each side sees as changed, is what the other side brings.
+        int ourChanges = this.getChangeKinds();
+        int otherChanges = other.getChangeKinds();
 
         merge(other.fields);
 
@@ -89,19 +88,62 @@ public final class UnionClass {
             this.includes.addAll(other.includes);
         }
 
+        if (this.callbacks != null) {
+            solver.schedule(this.callbacks, otherChanges);
+        }
+
         if (other.callbacks != null && other.callbacks.size() > 0) {
-            solver.removeDoneCallback(other);
+            solver.schedule(other.callbacks, ourChanges);
             if (this.callbacks == null) {
-                this.callbacks = new ArrayList<>();
+                this.callbacks = new LinkedHashSet<>();
             }
             this.callbacks.addAll(other.callbacks);
         }
 
-        if (this.callbacks != null && this.callbacks.size() > 0 && !waitingForCallback) {
-            solver.addDoneCallback(this);
+        scheduleIncluders(ourChanges | otherChanges);
+
+        if (this.includes != null && !this.includes.isEmpty()) {
+            // Merging two classes can close a cycle going through the merged class.
+            solver.markIncludesChanged(this);
         }
+    }
 
-//        collapseCycles();
+    private int getChangeKinds() {
+        int result = feature.getChangeKinds();
+        if (fields != null && !fields.isEmpty()) {
+            result |= UnionFindCallback.FIELDS;
+        }
+        if (includes != null && !includes.isEmpty()) {
+            // Anything reachable through the includes can change.
+            result |= UnionFindCallback.EVERYTHING;
+        }
+        return result;
+    }
+
+    // The classes including this class, sees the change through their reachable classes.
+    private void scheduleIncluders(int changes) {
+        if (this.includesUs == null || this.includesUs.isEmpty()) {
+            return;
+        }
+        Set<UnionClass> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(this);
+        Deque<UnionClass> toVisit = new ArrayDeque<>();
+        toVisit.add(this);
+        while (!toVisit.isEmpty()) {
+            UnionClass unionClass = toVisit.pop();
+            if (unionClass.includesUs == null) {
+                continue;
+            }
+            for (UnionNode includesUs : new ArrayList<>(unionClass.includesUs)) {
+                UnionClass includer = includesUs.getUnionClass();
+                if (seen.add(includer)) {
+                    if (includer.callbacks != null) {
+                        solver.schedule(includer.callbacks, changes);
+                    }
+                    toVisit.add(includer);
+                }
+            }
+        }
     }
 
     private void makeIncludesPointToParent() {
@@ -131,16 +173,8 @@ public final class UnionClass {
         toAdd.forEach(includes::add);
     }
 
-    private void collapseCycles() {
-        UnionClass.getStronglyConnectedComponents(Collections.singletonList(this)).forEach(collection -> {
-            if (collection.size() > 1) {
-                solver.union(collection.stream().map(clazz -> clazz.representative).collect(Collectors.toList()));
-            }
-        });
-    }
-
     public static List<List<UnionClass>> getStronglyConnectedComponents(Collection<UnionClass> unionClasses) {
-        Tarjan<TarjanNode> tarjan = new Tarjan<>();
+        Tarjan<TarjanNode> tarjan = UnionClass.tarjan.get();
         List<TarjanNode> nodes = unionClasses.stream().map(unionClass -> unionClass.tarjanNode).collect(Collectors.toList());
         List<List<TarjanNode>> components = tarjan.getSCComponents(nodes);
         return components.stream().map(list -> list.stream().map(TarjanNode::getUnionClass).collect(Collectors.toList())).collect(Collectors.toList());
@@ -172,45 +206,25 @@ public final class UnionClass {
 
     public void addChangeCallback(UnionFindCallback callback) {
         if (this.callbacks == null) {
-            this.callbacks = new ArrayList<>();
+            this.callbacks = new LinkedHashSet<>();
         }
         this.callbacks.add(callback);
-        if (!waitingForCallback) {
-            solver.addDoneCallback(this);
-        }
+        solver.schedule(callback, UnionFindCallback.EVERYTHING);
     }
 
     public UnionFeature getFeature() {
         return feature;
     }
 
-    public void doneCallback(int iteration) {
-        if (iteration == hasRunAtIteration) {
-            return;
-        }
-        hasRunAtIteration = iteration;
-        waitingForCallback = false;
-        if (this.callbacks != null) {
-            this.callbacks = this.callbacks.stream().distinct().collect(Collectors.toList());
-            for (Runnable callback : new ArrayList<>(this.callbacks)) {
-                callback.run();
-            }
-        }
-        if (this.includesUs != null) {
-            for (UnionNode includesUs : new ArrayList<>(this.includesUs)) {
-                includesUs.getUnionClass().doneCallback(iteration);
-            }
-        }
-    }
-
     public List<UnionClass> getReachable() {
         return getReachable((obj) -> obj);
     }
 
     public <T> List<T> getReachable(Function<UnionClass, T> mapFunc) {
-        return new Tarjan<TarjanNode>().getReachableSet(this.tarjanNode).stream().map(TarjanNode::getUnionClass).map(mapFunc).collect(Collectors.toList());
+        return tarjan.get().getReachableSet(this.tarjanNode, node -> mapFunc.apply(node.getUnionClass()), null);
     }
 
+    private static final ThreadLocal<Tarjan<TarjanNode>> tarjan = ThreadLocal.withInitial(Tarjan::new);
 
     private TarjanNode tarjanNode = new TarjanNode();
 
@@ -84,6 +84,29 @@ public class UnionFeature {
         }
     }
 
+    /**
+     * @return The kinds of features (as in UnionFindCallback.FUNCTION, UnionFindCallback.PROTOTYPES, ...) that this feature has.
+     */
+    int getChangeKinds() {
+        int result = 0;
+        if (prototypes != null && !prototypes.isEmpty()) {
+            result |= UnionFindCallback.PROTOTYPES;
+        }
+        if (primitives != null && !primitives.isEmpty()) {
+            result |= UnionFindCallback.PRIMITIVES;
+        }
+        if (functionFeature != null) {
+            result |= UnionFindCallback.FUNCTION;
+        }
+        if (objectFields != null && !objectFields.isEmpty()) {
+            result |= UnionFindCallback.OBJECT_FIELDS;
+        }
+        if ((typeNames != null && !typeNames.isEmpty()) || (names != null && !names.isEmpty()) || dynamicAccessLookupExp != null || dynamicAccessReturnType != null) {
+            result |= UnionFindCallback.OTHER;
+        }
+        return result;
+    }
+
     public Set<String> getNames() {
         if (names == null) {
             return Collections.EMPTY_SET;
@@ -10,6 +10,16 @@ import java.util.List;
  */
 @SuppressWarnings({"unchecked"})
 public abstract class UnionFindCallback implements Runnable {
+    // The kinds of changes to a UnionClass (or the classes reachable from it), that a callback can depend on.
+    public static final int FIELDS = 1; // UnionClass.getFields()
+    public static final int FUNCTION = 1 << 1; // UnionFeature.getFunctionFeature()
+    public static final int PROTOTYPES = 1 << 2; // UnionFeature.getPrototypes()
+    public static final int PRIMITIVES = 1 << 3; // UnionFeature.getPrimitives()
+    public static final int OBJECT_FIELDS = 1 << 4; // UnionFeature.getObjectFields()
+    public static final int INCLUDES = 1 << 5; // The set of reachable UnionClasses.
+    public static final int OTHER = 1 << 6; // Type-names, names and dynamic-access.
+    public static final int EVERYTHING = ~0;
+
     private List objects = new ArrayList();
 
     public UnionFindCallback(List objects) {
@@ -51,6 +61,15 @@ public abstract class UnionFindCallback implements Runnable {
         return objects.hashCode();
     }
 
+    /**
+     * The kinds of changes that this callback reads (see the constants above).
+     * The callback is only re-run when the class it is registered on (or a class including that class) has a change of one of these kinds.
+     * The default is to depend on everything.
+     */
+    public int getDependencies() {
+        return EVERYTHING;
+    }
+
     @Override
     public abstract void run();
 }
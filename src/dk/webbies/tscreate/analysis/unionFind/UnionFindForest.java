@@ -0,0 +1,87 @@
+package dk.webbies.tscreate.analysis.unionFind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The disjoint-set forest behind the UnionFindSolver.
+ *
+ * Every UnionNode that is added gets a dense int id, and the parent/rank of that id lives in primitive arrays (that grow when needed).
+ * The UnionClass of a set is only stored at the index of the root, so for every other id that slot is null.
+ *
+ * A forest can be shared between several solvers, if they need to union the same nodes (see {@link UnionFindSolver#UnionFindSolver(dk.webbies.tscreate.analysis.TypeAnalysis, UnionFindSolver)}).
+ */
+final class UnionFindForest {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] rank = new int[INITIAL_CAPACITY];
+    private UnionClass[] unionClasses = new UnionClass[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Allocates a new id, that initially is its own root.
+     */
+    int add() {
+        if (size == parent.length) {
+            int newCapacity = parent.length + (parent.length >> 1);
+            parent = Arrays.copyOf(parent, newCapacity);
+            rank = Arrays.copyOf(rank, newCapacity);
+            unionClasses = Arrays.copyOf(unionClasses, newCapacity);
+        }
+        int id = size++;
+        parent[id] = id;
+        return id;
+    }
+
+    /**
+     * Finds the root of the given id, halving the path on the way.
+     */
+    int find(int id) {
+        int[] parent = this.parent;
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    int getRank(int root) {
+        return rank[root];
+    }
+
+    void incrementRank(int root) {
+        rank[root]++;
+    }
+
+    /**
+     * Makes the child a non-root, and forgets about its UnionClass (which from now on lives on in the UnionClass of the new root).
+     */
+    void link(int child, int root) {
+        parent[child] = root;
+        unionClasses[child] = null;
+    }
+
+    UnionClass getUnionClass(int root) {
+        return unionClasses[root];
+    }
+
+    void setUnionClass(int root, UnionClass unionClass) {
+        unionClasses[root] = unionClass;
+    }
+
+    /**
+     * @return The UnionClasses currently alive, that is, the ones that belong to a root.
+     */
+    List<UnionClass> getUnionClasses(UnionFindSolver solver) {
+        List<UnionClass> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            UnionClass unionClass = unionClasses[i];
+            if (unionClass != null && unionClass.solver == solver) {
+                result.add(unionClass);
+            }
+        }
+        return result;
+    }
+}
@@ -33,22 +33,41 @@ import java.util.stream.Collectors;
  * Modified by Erik Krogh Kristensen, for use in TSCreate (working title).
  */
 public class UnionFindSolver {
-    private Set<UnionClass> unionClasses = new HashSet<>();
+    final UnionFindForest forest;
 
-    private Set<UnionClass> doneCallbacks = new HashSet<>();
+    // The callbacks that has to be run, because something they depend on has changed since they last ran.
+    private final Deque<UnionFindCallback> worklist = new ArrayDeque<>();
+    // The callbacks in the worklist. By equals, so equal callbacks (registered more than once) are only queued once.
+    private final Set<UnionFindCallback> queued = new HashSet<>();
+
+    // The classes that has gotten new includes since cycles were last collapsed. Every new cycle in the include-graph goes through one of these.
+    private Set<UnionClass> dirtyClasses = new HashSet<>();
+
+    // If set for a thread, the unions done by that thread are recorded in the batch, instead of being applied.
+    private final ThreadLocal<UnionBatch> recording = new ThreadLocal<>();
 
-    int iteration = 1;
     public final TypeAnalysis typeAnalysis;
 
+    /**
+     * Runs callbacks until no callback depends on something that has changed since it last ran.
+     * If options.collapseCyclesIncrementally is set, the cycles formed in the include-graph while doing so are collapsed as well.
+     */
     public void finish() {
-        while (doneCallbacks.size() > 0) {
-            int count = iteration++;
-            System.out.println(" - " + count + " (" + doneCallbacks.size() + ")");
-            ArrayList<UnionClass> copy = new ArrayList<>(doneCallbacks);
-            doneCallbacks.clear();
-            for (UnionClass unionClass : copy) {
-                unionClass.doneCallback(iteration);
+        if (worklist.isEmpty() && dirtyClasses.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        while (!worklist.isEmpty() || !dirtyClasses.isEmpty()) {
+            while (!worklist.isEmpty()) {
+                UnionFindCallback callback = worklist.poll();
+                queued.remove(callback);
+                callback.run();
+                count++;
             }
+            collapseNewCycles();
+        }
+        if (count > 0) {
+            System.out.println(" - " + count + " callbacks run");
         }
     }
 
@@ -58,6 +77,18 @@ public class UnionFindSolver {
      */
     public UnionFindSolver(TypeAnalysis typeAnalysis) {
         this.typeAnalysis = typeAnalysis;
+        this.forest = new UnionFindForest();
+    }
+
+    /**
+     * Creates a new UnionFindSolver, with its own callbacks, but that shares the underlying forest with another solver.
+     * This is needed if the new solver is going to union nodes that has been created by the other solver.
+     * @param typeAnalysis
+     * @param shareForestWith The solver whose nodes this solver can union.
+     */
+    public UnionFindSolver(TypeAnalysis typeAnalysis, UnionFindSolver shareForestWith) {
+        this.typeAnalysis = typeAnalysis;
+        this.forest = shareForestWith.forest;
     }
 
     /**
@@ -75,29 +106,116 @@ public class UnionFindSolver {
             throw new NullPointerException("UnionFind does not support null.");
 
         /* Check whether this entry exists; fail if it does. */
-        if (node.parent != null) {
+        if (node.id != -1) {
             return false;
         }
 
+        if (node.solver.forest != this.forest) {
+            throw new RuntimeException("A unionNode can only be added to a solver that shares the forest of the solver it was created with");
+        }
+
         /* Otherwise add the element as its own parent. */
-        node.parent = node;
+        node.id = forest.add();
 
-        node.unionClass = new UnionClass(this, node);
-        this.unionClasses.add(node.unionClass);
+        forest.setUnionClass(node.id, new UnionClass(this, node));
 
         return true;
     }
 
     public void runWhenChanged(UnionNode node, UnionFindCallback callback) {
+        UnionBatch batch = recording.get();
+        if (batch != null) {
+            batch.addCallback(node, callback);
+            return;
+        }
         node.getUnionClass().addChangeCallback(callback);
     }
 
-    public void addDoneCallback(UnionClass unionClass) {
-        this.doneCallbacks.add(unionClass);
+    /**
+     * Runs the action now, or if recording on this thread, when the batch is applied.
+     * Used for the side effects of the constraint generation outside the solver, so they happen in the same order as when the constraints aren't recorded.
+     */
+    public void whenApplied(Runnable action) {
+        UnionBatch batch = recording.get();
+        if (batch != null) {
+            batch.addAction(action);
+            return;
+        }
+        action.run();
+    }
+
+    /**
+     * Runs the generator on the current thread, but instead of applying the unions (and callback registrations) it does through this solver, they are recorded in the returned batch.
+     * The generator may therefore not look at the union-classes, but it can run concurrently with other generators.
+     */
+    public UnionBatch record(Runnable generator) {
+        if (recording.get() != null) {
+            throw new IllegalStateException("Already recording on this thread");
+        }
+        UnionBatch batch = new UnionBatch();
+        recording.set(batch);
+        try {
+            generator.run();
+        } finally {
+            recording.remove();
+        }
+        return batch;
     }
 
-    public void removeDoneCallback(UnionClass unionClass) {
-        this.doneCallbacks.remove(unionClass);
+    public boolean isRecording() {
+        return recording.get() != null;
+    }
+
+    /**
+     * Records what the generator does in the given batch. If already recording on this thread, that recording continues afterwards.
+     * Used for constraints shared by several recorded batches, which should be applied where they are first used, see {@link #applyOnce(UnionBatch)}.
+     */
+    public void recordInto(UnionBatch batch, Runnable generator) {
+        UnionBatch previous = recording.get();
+        recording.set(batch);
+        try {
+            generator.run();
+        } finally {
+            if (previous == null) {
+                recording.remove();
+            } else {
+                recording.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Applies the batch now, or if recording on this thread, when the recorded batch is applied. Either way, it is only applied the first time.
+     */
+    public void applyOnce(UnionBatch batch) {
+        UnionBatch current = recording.get();
+        if (current != null) {
+            current.addBatch(batch);
+            return;
+        }
+        batch.applyTo(this);
+    }
+
+    /**
+     * Applies a batch created by {@link #record(Runnable)}. The callbacks are not run before {@link #finish()} is called.
+     */
+    public void apply(UnionBatch batch) {
+        batch.applyTo(this);
+    }
+
+    /**
+     * Queues the callback (if it isn't already queued), if it depends on any of the changes.
+     */
+    void schedule(UnionFindCallback callback, int changes) {
+        if ((callback.getDependencies() & changes) != 0 && queued.add(callback)) {
+            worklist.add(callback);
+        }
+    }
+
+    void schedule(Collection<UnionFindCallback> callbacks, int changes) {
+        for (UnionFindCallback callback : callbacks) {
+            schedule(callback, changes);
+        }
     }
 
     /**
@@ -111,32 +229,11 @@ public class UnionFindSolver {
      */
     public UnionNode find(UnionNode elem) {
         /* Check whether the element exists; fail if it doesn't. */
-        if (elem.parent == null)
+        if (elem.id == -1)
             throw new NoSuchElementException(elem + " is not an element.");
 
-        /* Recursively search the structure and return the result. */
-        return recFind(elem);
-    }
-
-    /**
-     * Given an element which is known to be in the structure, searches
-     * for its representative element and returns it, applying path
-     * compression at each step.
-     *
-     * @param elem The element to look up.
-     * @return The representative of the set containing it.
-     */
-    private UnionNode recFind(UnionNode elem) {
-        /* If the element is its own parent, it's the representative of its
-         * class and we should say so.
-         */
-        if (elem.parent == elem)
-            return elem;
-
-        /* Otherwise, look up the parent of this element, then compress the
-         * path.
-         */
-        return elem.parent = recFind(elem.parent);
+        /* Search the forest (with path halving) and return the result. */
+        return elem.findParent();
     }
 
     public UnionNode union(UnionNode... nodes) {
@@ -179,63 +276,84 @@ public class UnionFindSolver {
         if (one == null || two == null) {
             throw new RuntimeException("A unionNode cannot be null");
         }
-        if (one.parent == null) {
+        UnionBatch batch = recording.get();
+        if (batch != null) {
+            batch.addUnion(one, two);
+            return one;
+        }
+        if (one.id == -1) {
             add(one);
         }
-        if (two.parent == null) {
+        if (two.id == -1) {
             add(two);
         }
 
 
-        /* Get the link info for the parents.  This also handles the exception
-         * guarantee.
-         */
-        one = recFind(one);
-        two = recFind(two);
+        /* Get the roots.  This also handles the exception guarantee. */
+        int oneRoot = forest.find(one.id);
+        int twoRoot = forest.find(two.id);
+
+        UnionClass oneClass = forest.getUnionClass(oneRoot);
+        one = oneClass.representative;
 
-        /* If these are the same object, we're done. */
-        if (one == two) return one;
+        /* If these are the same set, we're done. */
+        if (oneRoot == twoRoot) return one;
 
-        UnionNode oneParentBefore = one.parent;
+        UnionClass twoClass = forest.getUnionClass(twoRoot);
+        two = twoClass.representative;
 
-        /* Otherwise, link the two.  We'll do a union-by-rank, where the parent
-         * with the lower rank will merge with the parent with higher rank.
+        /* Otherwise, link the two.  We'll do a union-by-rank, where the root
+         * with the lower rank will merge with the root with higher rank.
          */
-        if (one.rank > two.rank) {
-            /* Since each parent must link to itself, the value of oneLink.parent
-             * is the representative of one.
-             */
-            two.parent = one.parent;
-        } else if (one.rank < two.rank) {
-            /* Same logic as above. */
-            one.parent = two.parent;
-        } else {
-            /* Arbitrarily wire one to be the parent of two. */
-            two.parent = one.parent;
+        int oneRank = forest.getRank(oneRoot);
+        int twoRank = forest.getRank(twoRoot);
+        if (oneRank < twoRank) {
+            forest.link(oneRoot, twoRoot);
 
-            /* Bump up the representative of one to the next rank. */
-            one.rank++;
-        }
+            // Two is the representative.
+            twoClass.representative = two;
+            twoClass.takeIn(oneClass);
+        } else {
+            forest.link(twoRoot, oneRoot);
+            if (oneRank == twoRank) {
+                /* Bump up the representative of one to the next rank. */
+                forest.incrementRank(oneRoot);
+            }
 
-        if (one.parent == oneParentBefore) {
             // One is the representative.
-            one.unionClass.representative = one;
-            one.unionClass.takeIn(two.unionClass);
-            this.unionClasses.remove(two.unionClass);
-            two.unionClass = null;
-        } else {
-            // Two is the representative.
-            two.unionClass.representative = two;
-            two.unionClass.takeIn(one.unionClass);
-            this.unionClasses.remove(one.unionClass);
-            one.unionClass = null;
+            oneClass.representative = one;
+            oneClass.takeIn(twoClass);
         }
 
         return one;
     }
 
     public void collapseCycles() {
-        UnionClass.getStronglyConnectedComponents(this.unionClasses).stream().filter(component -> component.size() > 1).forEach(component -> {
+        if (typeAnalysis.getOptions().collapseCyclesIncrementally) {
+            // Every cycle not going through a dirty class has already been collapsed.
+            collapseNewCycles();
+            return;
+        }
+        collapseCycles(forest.getUnionClasses(this));
+    }
+
+    void markIncludesChanged(UnionClass unionClass) {
+        if (typeAnalysis.getOptions().collapseCyclesIncrementally) {
+            dirtyClasses.add(unionClass);
+        }
+    }
+
+    private void collapseNewCycles() {
+        if (dirtyClasses.isEmpty()) {
+            return;
+        }
+        List<UnionClass> dirty = dirtyClasses.stream().map(clazz -> clazz.representative.getUnionClass()).distinct().collect(Collectors.toList());
+        dirtyClasses = new HashSet<>();
+        collapseCycles(dirty);
+    }
+
+    private void collapseCycles(Collection<UnionClass> roots) {
+        UnionClass.getStronglyConnectedComponents(roots).stream().filter(component -> component.size() > 1).forEach(component -> {
             this.union(component.stream().map(clazz -> clazz.representative).collect(Collectors.toList()));
         });
     }
@@ -1,38 +1,55 @@
 package dk.webbies.tscreate.analysis.unionFind;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by Erik Krogh Kristensen on 02-09-2015.
  */
 public abstract class UnionNode {
-    UnionNode parent;
-    int rank = 0;
-    UnionClass unionClass;
+    int id = -1; // The id in the UnionFindForest of the solver, -1 until the node has been added.
 
-    private final UnionFindSolver solver;
+    final UnionFindSolver solver;
 
-    private static int instanceCounter = 0;
+    private static final AtomicInteger instanceCounter = new AtomicInteger(0); // Nodes can be created concurrently, see UnionFindSolver.record().
     private final int counter;
 
     public UnionNode(UnionFindSolver solver) {
-        this.counter = instanceCounter++;
+        this.counter = instanceCounter.getAndIncrement();
         this.solver = solver;
     }
 
     public UnionClass getUnionClass() {
-        if (parent == null) {
+        if (id == -1) {
             solver.add(this);
         }
-        return findParent().unionClass;
+        UnionFindForest forest = solver.forest;
+        return forest.getUnionClass(forest.find(id));
     }
 
     public UnionNode findParent() {
-        if (this.parent == null) {
+        if (this.id == -1) {
+            return this;
+        }
+        UnionFindForest forest = solver.forest;
+        int root = forest.find(id);
+        if (root == id) {
             return this;
         }
-        while (this.parent != this.parent.parent) {
-            this.parent = this.parent.parent;
+        return forest.getUnionClass(root).representative;
+    }
+
+    /**
+     * @return The UnionClass of this node, if this node is the representative of its class, otherwise null.
+     */
+    UnionClass getUnionClassIfRepresentative() {
+        if (id == -1) {
+            return null;
+        }
+        UnionFindForest forest = solver.forest;
+        if (forest.find(id) != id) {
+            return null;
         }
-        return this.parent;
+        return forest.getUnionClass(id);
     }
 
     public abstract void addTo(UnionClass unionClass);
@@ -48,7 +65,7 @@ public abstract class UnionNode {
 
         UnionNode unionNode = (UnionNode) o;
 
-        if (unionNode.parent == null || this.parent == null) {
+        if (unionNode.id == -1 || this.id == -1) {
             return false;
         }
 
@@ -57,12 +74,13 @@ public abstract class UnionNode {
 
     @Override
     public int hashCode() {
-        if (this.parent == null) {
+        if (this.id == -1) {
             return 0;
         }
-        if (this.parent == this) {
+        UnionNode parent = findParent();
+        if (parent == this) {
             return super.hashCode();
         }
-        return findParent().hashCode();
+        return parent.hashCode();
     }
 }
@@ -20,6 +20,7 @@ public abstract class UnionNodeWithFields extends UnionNode {
     }
 
     public void addField(String name, UnionNode node) {
+        UnionClass unionClass = getUnionClassIfRepresentative();
         if (unionClass != null) {
             unionClass.addField(name, node);
         }
@@ -6,6 +6,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.types.*;
+import dk.webbies.tscreate.analysis.NativeTypeFactory;
 import dk.webbies.tscreate.analysis.declarations.types.NamedObjectType;
 import dk.webbies.tscreate.jsnap.Snap;
 import dk.webbies.tscreate.jsnap.classes.LibraryClass;
@@ -13,6 +14,7 @@ import dk.webbies.tscreate.util.Util;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static dk.webbies.tscreate.jsnap.JSNAPUtil.lookupRecursive;
@@ -358,7 +360,14 @@ public class DeclarationParser {
             return null;
         }
 
-        private Map<String, Set<String>> baseNameCache = new HashMap<>();
+        // Concurrent for the same reason as baseNameCache, and since the analyses of CombinedTypeAnalysis make their constraints in parallel.
+        private final Map<Signature, NativeTypeFactory.SignatureTemplate> signatureTemplates = new ConcurrentHashMap<>();
+        public Map<Signature, NativeTypeFactory.SignatureTemplate> getSignatureTemplates() {
+            return signatureTemplates;
+        }
+
+        // Concurrent, since the NativeClassesMaps of the handwritten declaration are shared by evaluations running in parallel (see DeclarationEvaluator).
+        private Map<String, Set<String>> baseNameCache = new ConcurrentHashMap<>();
         public Set<String> getBaseNames(String name) {
             assert name != null;
             if (baseNameCache.containsKey(name)) {
@@ -9,49 +9,78 @@ import static dk.webbies.tscreate.evaluation.DebugEvaluation.EvaluationType.*;
 /**
  * Created by erik1 on 26-05-2016.
  */
-public class DebugEvaluation extends Evaluation<List<DebugEvaluation.EvaluationStatement>> {
+public class DebugEvaluation extends Evaluation {
+    // The statements are stored in parallel arrays (in the order they were added), and are only made into EvaluationStatements when asked for.
+    private final TypePathTable paths;
+    private int size = 0;
+    private int[] depths = new int[16];
+    private int[] typePaths = new int[16];
+    private byte[] types = new byte[16];
+    private Description[] descriptions = new Description[16];
+
+    // counts[type.ordinal()][depth]
+    private final int[][] counts = new int[EvaluationType.values().length][8];
+
     DebugEvaluation() {
-        
+        this(new TypePathTable());
+    }
+
+    private DebugEvaluation(TypePathTable paths) {
+        this.paths = paths;
     }
 
-    private void add(int depth, Map<Integer, List<EvaluationStatement>> map, Description description, String typePath, EvaluationType type) {
-        EvaluationStatement statement = new EvaluationStatement(description, typePath, type, depth);
-        add(depth, map, statement);
+    @Override
+    Evaluation createEmpty() {
+        return new DebugEvaluation(this.paths);
     }
 
-    private void add(int depth, Map<Integer, List<EvaluationStatement>> map, EvaluationStatement statement) {
+    private void add(int depth, int typePath, EvaluationType type, Description description) {
         maxDepth = Math.max(depth, maxDepth);
-        if (map.containsKey(depth)) {
-            map.get(depth).add(statement);
-        } else {
-            map.put(depth, new ArrayList<>(Arrays.asList(statement)));
+        if (size == depths.length) {
+            depths = Arrays.copyOf(depths, size * 2);
+            typePaths = Arrays.copyOf(typePaths, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            descriptions = Arrays.copyOf(descriptions, size * 2);
         }
+        depths[size] = depth;
+        typePaths[size] = typePath;
+        types[size] = (byte) type.ordinal();
+        descriptions[size] = description; // Not shared between statements, the descriptions are compared by identity, so that would merge statements in getAllStatements.
+        size++;
+
+        int[] count = counts[type.ordinal()];
+        if (depth >= count.length) {
+            count = Arrays.copyOf(count, Math.max(depth + 1, count.length * 2));
+            counts[type.ordinal()] = count;
+        }
+        count[depth]++;
     }
 
     public void addFalseNegative(int depth, Description description, String typePath) {
-        add(depth, falseNegatives, description, typePath, FALSE_NEGATIVE);
+        add(depth, paths.intern(typePath), FALSE_NEGATIVE, description);
     }
 
     public void addFalsePositive(int depth, Description description, String typePath) {
-        add(depth, falsePositives, description, typePath, FALSE_POSITIVE);
+        add(depth, paths.intern(typePath), FALSE_POSITIVE, description);
     }
 
     public void addTruePositive(int depth, Description description, String typePath) {
-        add(depth, truePositive, description, typePath, TRUE_POSITIVE);
+        add(depth, paths.intern(typePath), TRUE_POSITIVE, description);
     }
 
 
     int IFound(int depth) {
-        return get(depth, this.truePositive) + get(depth, this.falsePositives);
+        return get(depth, TRUE_POSITIVE) + get(depth, FALSE_POSITIVE);
     }
 
     int thereIs(int depth) {
-        return get(depth, this.truePositive) + get(depth, this.falseNegatives);
+        return get(depth, TRUE_POSITIVE) + get(depth, FALSE_NEGATIVE);
     }
 
-    int get(int depth, Map<Integer, List<EvaluationStatement>> map) {
-        if (map.containsKey(depth)) {
-            return map.get(depth).size();
+    private int get(int depth, EvaluationType type) {
+        int[] count = counts[type.ordinal()];
+        if (depth >= 0 && depth < count.length) {
+            return count[depth];
         } else {
             return 0;
         }
@@ -64,43 +93,97 @@ public class DebugEvaluation extends Evaluation<List<DebugEvaluation.EvaluationS
         }
         DebugEvaluation evaluation = (DebugEvaluation) eval;
         this.maxDepth = Math.max(this.maxDepth, evaluation.maxDepth);
-        addAll(evaluation.falseNegatives, this.falseNegatives);
-        addAll(evaluation.falsePositives, this.falsePositives);
-        addAll(evaluation.truePositive, this.truePositive);
+        for (int i = 0; i < evaluation.size; i++) {
+            add(evaluation.depths[i], evaluation.typePathIn(i, this.paths), EvaluationType.values()[evaluation.types[i]], evaluation.descriptions[i]);
+        }
+    }
+
+    // The id of the path of statement i, in the given table.
+    private int typePathIn(int i, TypePathTable table) {
+        if (table == this.paths) {
+            return typePaths[i];
+        }
+        return table.intern(paths.get(typePaths[i]));
+    }
+
+    @Override
+    void addRelocated(Evaluation eval, int depthShift, String fromPrefix, String toPrefix) {
+        if (!(eval instanceof DebugEvaluation)) {
+            throw new RuntimeException();
+        }
+        DebugEvaluation evaluation = (DebugEvaluation) eval;
+        for (int i = 0; i < evaluation.size; i++) {
+            int typePath;
+            if (fromPrefix.equals(toPrefix)) {
+                typePath = evaluation.typePathIn(i, this.paths);
+            } else {
+                String path = evaluation.paths.get(evaluation.typePaths[i]);
+                if (path.startsWith(fromPrefix)) {
+                    path = toPrefix + path.substring(fromPrefix.length());
+                }
+                typePath = this.paths.intern(path);
+            }
+            add(evaluation.depths[i] + depthShift, typePath, EvaluationType.values()[evaluation.types[i]], evaluation.descriptions[i]);
+        }
     }
 
-    private void addAll(Map<Integer, List<EvaluationStatement>> from, Map<Integer, List<EvaluationStatement>> to) {
-        from.forEach((depth, list) -> {
-            list.forEach(statement -> {
-                add(depth, to, statement);
-            });
-        });
+    int getFalseNegatives(int depth) {
+        return get(depth, FALSE_NEGATIVE);
+    }
+
+    int getFalsePositives(int depth) {
+        return get(depth, FALSE_POSITIVE);
     }
 
     public int getTruePositives(int depth) {
-        return get(depth, this.truePositive);
+        return get(depth, TRUE_POSITIVE);
+    }
+
+    private EvaluationStatement getStatement(int i) {
+        return new EvaluationStatement(descriptions[i], paths.get(typePaths[i]), EvaluationType.values()[types[i]], depths[i]);
     }
 
     public String debugPrint() {
         StringBuilder builder = new StringBuilder();
-        HashMap<Integer, List<EvaluationStatement>> falses = new HashMap<>();
-        addAll(this.falseNegatives, falses);
-        addAll(this.falsePositives, falses);
-        ArrayList<Integer> keys = new ArrayList<>(falses.keySet());
-        Collections.sort(keys);
-        for (Integer key : keys) {
-            builder.append("\n\n\n").append("Depth: ").append(key).append("\n");
-            List<EvaluationStatement> list = falses.get(key);
-            list.forEach((string) -> builder.append(string.toString()).append("\n"));
+        // By depth, and within a depth the false negatives before the false positives, otherwise in the order they were added.
+        List<Integer> falses = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (types[i] != TRUE_POSITIVE.ordinal()) {
+                falses.add(i);
+            }
+        }
+        falses.sort(Comparator.<Integer>comparingInt(i -> depths[i]).thenComparingInt(i -> types[i]));
+        int depth = Integer.MIN_VALUE;
+        for (int i : falses) {
+            if (depths[i] != depth) {
+                depth = depths[i];
+                builder.append("\n\n\n").append("Depth: ").append(depth).append("\n");
+            }
+            builder.append(getStatement(i).toString()).append("\n");
         }
         return builder.toString();
     }
 
     public Set<EvaluationStatement> getAllStatements() {
         Set<EvaluationStatement> result = new HashSet<>();
-        this.truePositive.values().forEach(result::addAll);
-        this.falseNegatives.values().forEach(result::addAll);
-        this.falsePositives.values().forEach(result::addAll);
+        for (int i = 0; i < size; i++) {
+            result.add(getStatement(i));
+        }
+        return result;
+    }
+
+    /**
+     * All the statements that are not true positives (without duplicates), sorted by depth and then by type-path.
+     */
+    public List<EvaluationStatement> getFalseStatements() {
+        Set<EvaluationStatement> statements = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            if (types[i] != TRUE_POSITIVE.ordinal()) {
+                statements.add(getStatement(i));
+            }
+        }
+        List<EvaluationStatement> result = new ArrayList<>(statements);
+        result.sort(Comparator.<EvaluationStatement>comparingInt(stmt -> stmt.depth).thenComparing(stmt -> stmt.typePath));
         return result;
     }
 
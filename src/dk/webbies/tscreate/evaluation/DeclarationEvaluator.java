@@ -11,8 +11,12 @@ import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.util.Util;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import static dk.webbies.tscreate.declarationReader.DeclarationParser.*;
 
@@ -20,6 +24,8 @@ import static dk.webbies.tscreate.declarationReader.DeclarationParser.*;
  * Created by Erik Krogh Kristensen on 05-10-2015.
  */
 public class DeclarationEvaluator {
+    private static ForkJoinPool pool = null;
+
     private final Evaluation evaluation;
     private Snap.Obj global;
     private Map<Snap.Obj, LibraryClass> libraryClasses;
@@ -67,30 +73,49 @@ public class DeclarationEvaluator {
         this.global = globalObject;
         this.libraryClasses = libraryClasses;
 
-        Multimap<String, Evaluation> evaluations = ArrayListMultimap.create();
+        // The handwritten declaration is the same for every file, so it is only parsed (and cleaned up) once, and then shared by the evaluations.
+        ParsedDeclaration handwritten = new ParsedDeclaration(null, benchMark, global, libraryClasses, emptySnap).invokeHandwritten();
+        InterfaceType realDeclaration = handwritten.getRealDeclaration();
 
-        for (String resultFilePath : resultFilePaths) {
-            ParsedDeclaration parsedDeclaration = new ParsedDeclaration(resultFilePath, benchMark, global, libraryClasses, emptySnap).invoke();
-            InterfaceType realDeclaration = parsedDeclaration.getRealDeclaration();
-            InterfaceType myDeclaration = parsedDeclaration.getMyDeclaration();
-            Set<String> properties = parsedDeclaration.getProperties();
-            Set<Type> nativeTypesInReal = parsedDeclaration.getNativeTypesInReal();
-
-            // Globally variables of type "any", are really just modules, that contain nothing but interfaces (in other words, they don't exist. )
-            Iterator<Type> realGlobalIterator = realDeclaration.getDeclaredProperties().values().iterator();
-            while (realGlobalIterator.hasNext()) {
-                Type next = realGlobalIterator.next();
-                if (next instanceof SimpleType && ((SimpleType) next).getKind() == SimpleTypeKind.Any) {
-                    realGlobalIterator.remove();
-                }
+        // Globally variables of type "any", are really just modules, that contain nothing but interfaces (in other words, they don't exist. )
+        Iterator<Type> realGlobalIterator = realDeclaration.getDeclaredProperties().values().iterator();
+        while (realGlobalIterator.hasNext()) {
+            Type next = realGlobalIterator.next();
+            if (next instanceof SimpleType && ((SimpleType) next).getKind() == SimpleTypeKind.Any) {
+                realGlobalIterator.remove();
             }
+        }
 
+        realDeclaration.getDeclaredProperties().keySet().removeAll(handwritten.getExistingProperties());
 
-            realDeclaration.getDeclaredProperties().keySet().retainAll(properties);
-            myDeclaration.getDeclaredProperties().keySet().retainAll(properties);
+        // Each file is evaluated on its own (with its own queue and evaluations), so they can be evaluated in parallel.
+        List<String> paths = new ArrayList<>(resultFilePaths);
+        List<Map<String, Evaluation>> fileEvaluations = new ArrayList<>(Collections.nCopies(paths.size(), null));
+        IntConsumer evaluateFile = i -> {
+            ParsedDeclaration parsedDeclaration = handwritten.withResultFile(paths.get(i));
+            InterfaceType myDeclaration = parsedDeclaration.getMyDeclaration();
+            myDeclaration.getDeclaredProperties().keySet().retainAll(parsedDeclaration.getProperties());
 
-            Map<String, Evaluation> functionEvaluations = getFunctionEvaluations(options, realDeclaration, myDeclaration, nativeTypesInReal, parsedDeclaration.getRealNativeClasses(), parsedDeclaration.getMyNativeClasses(), parsedDeclaration.getEmptyNativeClasses());
+            fileEvaluations.set(i, getFunctionEvaluations(options, realDeclaration, myDeclaration, parsedDeclaration.getNativeTypesInReal(), parsedDeclaration.getRealNativeClasses(), parsedDeclaration.getMyNativeClasses(), parsedDeclaration.getEmptyNativeClasses()));
+        };
+        if (options.evaluationThreads <= 1 || paths.size() <= 1) {
+            IntStream.range(0, paths.size()).forEach(evaluateFile);
+        } else {
+            try {
+                getPool(options.evaluationThreads).submit(() -> IntStream.range(0, paths.size()).parallel().forEach(evaluateFile)).get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
 
+        // Merged in the order of the files, so the result is the same no matter how the evaluations were scheduled.
+        Multimap<String, Evaluation> evaluations = ArrayListMultimap.create();
+        for (Map<String, Evaluation> functionEvaluations : fileEvaluations) {
             functionEvaluations.entrySet().stream().forEach(entry -> evaluations.put(entry.getKey(), entry.getValue()));
         }
 
@@ -105,6 +130,16 @@ public class DeclarationEvaluator {
 
     }
 
+    private static synchronized ForkJoinPool getPool(int threads) {
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
     public static Evaluation getEvaluation(Options options, Type realDeclaration, Type myDeclaration, Set<Type> nativeTypesInReal, NativeClassesMap realNativeClasses, NativeClassesMap myNativeClasses, NativeClassesMap emptyNativeClasses, boolean skipClassCheck) {
         PriorityQueue<EvaluationQueueElement> queue = new PriorityQueue<>();
         AtomicBoolean hasRun = new AtomicBoolean(false);
@@ -115,9 +150,10 @@ public class DeclarationEvaluator {
 
         Set<Type> classInstanceTypes = skipClassCheck ? new HashSet<>() : ClassFinder.getClassInstanceTypes(myDeclaration, realDeclaration);
 
+        EvaluationMemo memo = options.memoizeEvaluation && options.maxEvaluationDepth != null ? new EvaluationMemo() : null;
         Evaluation evaluation = Evaluation.create(options.debugPrint);
         queue.add(new EvaluationQueueElement(0, () -> {
-            EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes);
+            EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes, memo);
             realDeclaration.accept(visitor, new EvaluationVisitor.Arg(myDeclaration, doneCallback, "window"));
         }));
 
@@ -167,17 +203,21 @@ public class DeclarationEvaluator {
         Set<FunctionToEvaluate> constructors = collector.getConstructors();
 
         Map<String, Evaluation> evaluations = new HashMap<>();
+        Evaluation emptyEvaluation = Evaluation.create(options.debugPrint); // The function evaluations are made from this, so they share what they can.
 
         Set<Type> classInstanceTypes = ClassFinder.getClassInstanceTypes(myDeclaration, realDeclaration);
 
+        // Shared by all the functions, the same interfaces are often reached from a lot of them.
+        EvaluationMemo memo = options.memoizeEvaluation && options.maxEvaluationDepth != null ? new EvaluationMemo() : null;
+
         for (FunctionToEvaluate toEvaluate : functions) {
             Runnable callback = whenAllDone.newSubCallback();
 
             queue.add(new EvaluationQueueElement(0, () -> {
-                Evaluation evaluation = Evaluation.create(options.debugPrint);
+                Evaluation evaluation = emptyEvaluation.createEmpty();
                 assert !evaluations.containsKey(toEvaluate.path);
                 evaluations.put(toEvaluate.path, evaluation);
-                EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes);
+                EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes, memo);
                 visitor.evaluateFunctions(new ArrayList<>(toEvaluate.myFunc), new ArrayList<>(toEvaluate.realFunc), callback, false, toEvaluate.path, false);
             }));
         }
@@ -186,10 +226,10 @@ public class DeclarationEvaluator {
             Runnable callback = whenAllDone.newSubCallback();
 
             queue.add(new EvaluationQueueElement(0, () -> {
-                Evaluation evaluation = Evaluation.create(options.debugPrint);
+                Evaluation evaluation = emptyEvaluation.createEmpty();
                 assert !evaluations.containsKey(toEvaluate.path);
                 evaluations.put(toEvaluate.path, evaluation);
-                EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes);
+                EvaluationVisitor visitor = new EvaluationVisitor(0, evaluation, queue, nativeTypesInReal, realNativeClasses, myNativeClasses, emptyNativeClasses, new HashSet<>(), options, classInstanceTypes, memo);
                 visitor.evaluateFunctions(new ArrayList<>(toEvaluate.myFunc), new ArrayList<>(toEvaluate.realFunc), callback, false, toEvaluate.path, true);
             }));
         }
@@ -235,6 +275,7 @@ public class DeclarationEvaluator {
         private SpecReader realDeclaration;
         private SpecReader myDeclaration;
         private Set<String> properties;
+        private Set<String> existingProperties;
         private Set<Type> nativeTypesInReal;
         private NativeClassesMap realNativeClasses;
         private NativeClassesMap myNativeClasses;
@@ -260,6 +301,13 @@ public class DeclarationEvaluator {
             return properties;
         }
 
+        /**
+         * The global properties that are declared by the environment (and not by the library).
+         */
+        public Set<String> getExistingProperties() {
+            return existingProperties;
+        }
+
         public Set<Type> getNativeTypesInReal() {
             return nativeTypesInReal;
         }
@@ -292,6 +340,67 @@ public class DeclarationEvaluator {
                 throw new RuntimeException(throwable);
             }
 
+            existingProperties = ((InterfaceType)emptyDeclaration.get().getGlobal()).getDeclaredProperties().keySet();
+            findProperties();
+
+            realNativeClasses = parseNatives(global, libraryClasses, realDeclaration, emptySnap);
+            this.emptyNativeClasses = parseNatives(global, libraryClasses, emptyDeclaration.get(), emptySnap);
+            myNativeClasses = parseNatives(global, libraryClasses, myDeclaration,  emptySnap);
+
+            findNativeTypesInReal();
+
+            return this;
+        }
+
+        /**
+         * Only parses the handwritten declaration (and the declaration of the environment).
+         * The result can be shared between several generated declarations, see withResultFile().
+         */
+        public ParsedDeclaration invokeHandwritten() {
+            Environment env = benchMark.languageLevel.environment;
+            List<String> dependencies = benchMark.dependencyDeclarations();
+            AtomicReference<SpecReader> emptyDeclaration = new AtomicReference<>();
+            try {
+                Util.runAll(() -> {
+                    realDeclaration = getTypeSpecification(env, dependencies, benchMark.declarationPath);
+                }, () -> {
+                    emptyDeclaration.set(getTypeSpecification(env, dependencies));
+                });
+            } catch (Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+
+            existingProperties = ((InterfaceType)emptyDeclaration.get().getGlobal()).getDeclaredProperties().keySet();
+
+            realNativeClasses = parseNatives(global, libraryClasses, realDeclaration, emptySnap);
+            this.emptyNativeClasses = parseNatives(global, libraryClasses, emptyDeclaration.get(), emptySnap);
+
+            findNativeTypesInReal();
+
+            return this;
+        }
+
+        /**
+         * Parses a generated declaration, and uses the handwritten declaration already parsed by invokeHandwritten().
+         * Can be called from several threads at once.
+         */
+        public ParsedDeclaration withResultFile(String resultFilePath) {
+            assert realDeclaration != null;
+            ParsedDeclaration result = new ParsedDeclaration(resultFilePath, benchMark, global, libraryClasses, emptySnap);
+            result.realDeclaration = this.realDeclaration;
+            result.existingProperties = this.existingProperties;
+            result.realNativeClasses = this.realNativeClasses;
+            result.emptyNativeClasses = this.emptyNativeClasses;
+            result.nativeTypesInReal = this.nativeTypesInReal;
+
+            result.myDeclaration = getTypeSpecification(benchMark.languageLevel.environment, benchMark.dependencyDeclarations(), resultFilePath);
+            result.findProperties();
+            result.myNativeClasses = parseNatives(global, libraryClasses, result.myDeclaration, emptySnap);
+
+            return result;
+        }
+
+        private void findProperties() {
             properties = new HashSet<>();
 
             Set<String> realProperties = ((InterfaceType)realDeclaration.getGlobal()).getDeclaredProperties().keySet();
@@ -299,23 +408,16 @@ public class DeclarationEvaluator {
             properties.addAll(realProperties);
             properties.addAll(myProperties);
 
-            Set<String> existingProperties = ((InterfaceType)emptyDeclaration.get().getGlobal()).getDeclaredProperties().keySet();
             properties.removeAll(existingProperties);
+        }
 
-            realNativeClasses = parseNatives(global, libraryClasses, realDeclaration, emptySnap);
-            this.emptyNativeClasses = parseNatives(global, libraryClasses, emptyDeclaration.get(), emptySnap);
-            myNativeClasses = parseNatives(global, libraryClasses, myDeclaration,  emptySnap);
-
-
+        private void findNativeTypesInReal() {
             nativeTypesInReal = new HashSet<>();
             for (String name : emptyNativeClasses.getNativeTypeNames()) {
                 Type type = realNativeClasses.typeFromName(name);
                 assert type != null;
                 nativeTypesInReal.add(type);
             }
-
-
-            return this;
         }
     }
 
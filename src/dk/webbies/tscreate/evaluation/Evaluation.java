@@ -6,18 +6,14 @@ import dk.webbies.tscreate.util.Util;
 import org.apache.commons.lang3.NotImplementedException;
 
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
 
 /**
  * Created by Erik Krogh Kristensen on 14-12-2015.
  */
-public abstract class Evaluation<T> {
+public abstract class Evaluation {
     int maxDepth = -1;
 
-    Map<Integer, T> falseNegatives = new HashMap<>();
-    Map<Integer, T> falsePositives = new HashMap<>();
-    Map<Integer, T> truePositive = new HashMap<>();
-
     public abstract void addFalseNegative(int depth, Description description, String typePath);
 
     public abstract void addFalsePositive(int depth, Description description, String typePath);
@@ -50,11 +46,9 @@ public abstract class Evaluation<T> {
         return print();
     }
 
-    abstract int get(int depth, Map<Integer, T> map);
-
     double precision(int depth) {
-        double fp = get(depth, this.falsePositives);
-        double tp = get(depth, this.truePositive);
+        double fp = getFalsePositives(depth);
+        double tp = getTruePositives(depth);
         double result = tp / (tp + fp);
         if (Double.isNaN(result)) {
             return 0;
@@ -63,8 +57,8 @@ public abstract class Evaluation<T> {
     }
 
     double recall(int depth) {
-        double fn = get(depth, this.falseNegatives);
-        double tp = get(depth, this.truePositive);
+        double fn = getFalseNegatives(depth);
+        double tp = getTruePositives(depth);
         double result = tp / (tp + fn);
         if (Double.isNaN(result)) {
             return 0;
@@ -93,12 +87,12 @@ public abstract class Evaluation<T> {
         return new Score(fMeasure, precision, recall);
     }
 
-    protected double score(Function<Integer, Double> function, boolean makeMax1) {
+    protected double score(IntToDoubleFunction function, boolean makeMax1) {
         double result = 0;
         double measure = 1;
         int startDepth = 1;
         for (int depth = startDepth; depth <= maxDepth; depth++) {
-            measure = function.apply(depth) * measure;
+            measure = function.applyAsDouble(depth) * measure;
             result += measure * Math.pow(2, -depth);
         }
         assert !Double.isNaN(result);
@@ -112,8 +106,22 @@ public abstract class Evaluation<T> {
         return result;
     }
 
+    /**
+     * A new empty evaluation of the same kind, that shares what it can with this one (so adding one to the other is cheap).
+     */
+    abstract Evaluation createEmpty();
+
     public abstract void add(Evaluation evaluation);
 
+    /**
+     * Adds everything in evaluation, with the depths moved by depthShift, and the type-paths starting with fromPrefix changed to start with toPrefix.
+     */
+    abstract void addRelocated(Evaluation evaluation, int depthShift, String fromPrefix, String toPrefix);
+
+    abstract int getFalseNegatives(int depth);
+
+    abstract int getFalsePositives(int depth);
+
     public abstract int getTruePositives(int depth);
 
     abstract int IFound(int depth);
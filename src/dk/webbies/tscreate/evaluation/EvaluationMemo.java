@@ -0,0 +1,71 @@
+package dk.webbies.tscreate.evaluation;
+
+import dk.au.cs.casa.typescript.types.Type;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers the evaluation of a (real, my) pair of types, so it can be reused when the same pair is reached again, instead of evaluating the pair (and everything below it) again.
+ * See Options.memoizeEvaluation.
+ *
+ * The evaluations are stored relative to the type-path they were made at, and are moved to the new path when reused.
+ *
+ * Only used when Options.maxEvaluationDepth is set. Then the evaluation of a pair only depends on the depth it is reached at (which is part of the key), so reusing it is exact.
+ * Without a max depth, pairs that have already been seen are skipped, and what has been seen depends on where the pair was reached from.
+ */
+final class EvaluationMemo {
+    private final Map<Key, Result> results = new HashMap<>();
+
+    Result get(Type realType, Type myType, int depth, int extraDepth) {
+        return results.get(new Key(realType, myType, depth, extraDepth));
+    }
+
+    void put(Type realType, Type myType, int depth, int extraDepth, Result result) {
+        results.put(new Key(realType, myType, depth, extraDepth), result);
+    }
+
+    static final class Result {
+        private final Evaluation evaluation;
+        private final int depth;
+        private final String prefix;
+
+        Result(Evaluation evaluation, int depth, String prefix) {
+            this.evaluation = evaluation;
+            this.depth = depth;
+            this.prefix = prefix;
+        }
+
+        void addTo(Evaluation to, int depth, String prefix) {
+            to.addRelocated(evaluation, depth - this.depth, this.prefix, prefix);
+        }
+    }
+
+    private static final class Key {
+        private final Type realType;
+        private final Type myType;
+        private final int depth;
+        private final int extraDepth;
+
+        private Key(Type realType, Type myType, int depth, int extraDepth) {
+            this.realType = realType;
+            this.myType = myType;
+            this.depth = depth;
+            this.extraDepth = extraDepth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return depth == key.depth && extraDepth == key.extraDepth && Objects.equals(realType, key.realType) && Objects.equals(myType, key.myType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(realType, myType, depth, extraDepth);
+        }
+    }
+}
@@ -34,6 +34,7 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
     private Set<Pair<Type, Type>> seen;
     private Options options;
     private Set<Type> classInstanceTypes;
+    private final EvaluationMemo memo; // null unless Options.memoizeEvaluation is true and Options.maxEvaluationDepth is set.
 
     public EvaluationVisitor(
             int depth,
@@ -45,7 +46,8 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
             NativeClassesMap emptyNativeClasses,
             Set<Pair<Type, Type>> seen,
             Options options,
-            Set<Type> classInstanceTypes) {
+            Set<Type> classInstanceTypes,
+            EvaluationMemo memo) {
         this.depth = depth;
         this.evaluation = evaluation;
         this.queue = queue;
@@ -56,11 +58,12 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
         this.seen = seen;
         this.options = options;
         this.classInstanceTypes = classInstanceTypes;
+        this.memo = memo;
     }
 
 
     private EvaluationVisitor moreDepth(int extraDepth) {
-        return new EvaluationVisitor(this.depth + extraDepth, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes);
+        return new EvaluationVisitor(this.depth + extraDepth, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes, this.memo);
     }
 
     static final class Arg {
@@ -99,39 +102,65 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
                 seen.add(new Pair<>(realType, myType));
             }
 
-            if (realType instanceof UnionType && myType instanceof UnionType) {
-                ArrayList<Pair<Type, Type>> typePairs = new ArrayList<>();
-
-                for (Type realSubType : ((UnionType) realType).getElements()) {
-                    //noinspection Convert2streamapi
-                    for (Type mySubType : ((UnionType) myType).getElements()) {
-                        typePairs.add(new Pair<>(realSubType, mySubType));
-                    }
-                }
-
-                findBest(typePairs, (evaluation) -> {
-                    EvaluationVisitor.this.evaluation.add(evaluation);
-                    callback.run();
-                }, prefix, extraDepth);
-            } else if (myType instanceof UnionType) {
-                findBest(((UnionType) myType).getElements().stream().map(elem -> new Pair<>(realType, elem)).collect(Collectors.toList()),
-                        (evaluation) -> {
-                            EvaluationVisitor.this.evaluation.add(evaluation);
-                            callback.run();
-                        }, prefix, extraDepth);
-            } else if (realType instanceof UnionType) {
-                findBest(((UnionType) realType).getElements().stream().map(elem -> new Pair<>(elem, myType)).collect(Collectors.toList()),
-                        (evaluation) -> {
-                            EvaluationVisitor.this.evaluation.add(evaluation);
-                            callback.run();
-                        }, prefix, extraDepth);
+            if (memo != null && !(realType instanceof SimpleType) && !(myType instanceof SimpleType)) {
+                evaluateMemoized(realType, myType, callback, prefix, extraDepth);
             } else {
-                analyzeNextDepth(realType, myType, callback, prefix, extraDepth);
+                evaluate(realType, myType, callback, prefix, extraDepth);
             }
         };
         queue.add(new EvaluationQueueElement(depth + extraDepth, runNextDepth));
     }
 
+    private void evaluateMemoized(Type realType, Type myType, Runnable callback, String prefix, int extraDepth) {
+        EvaluationMemo.Result result = memo.get(realType, myType, depth, extraDepth);
+        if (result != null) {
+            result.addTo(this.evaluation, depth + extraDepth, prefix);
+            callback.run();
+            return;
+        }
+
+        // Evaluated on its own, so the evaluation can be remembered.
+        Evaluation subEvaluation = this.evaluation.createEmpty();
+        EvaluationVisitor visitor = new EvaluationVisitor(this.depth, subEvaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes, this.memo);
+        visitor.evaluate(realType, myType, () -> {
+            memo.put(realType, myType, depth, extraDepth, new EvaluationMemo.Result(subEvaluation, depth + extraDepth, prefix));
+            this.evaluation.addRelocated(subEvaluation, 0, prefix, prefix);
+            callback.run();
+        }, prefix, extraDepth);
+    }
+
+    private void evaluate(Type realType, Type myType, Runnable callback, String prefix, int extraDepth) {
+        if (realType instanceof UnionType && myType instanceof UnionType) {
+            ArrayList<Pair<Type, Type>> typePairs = new ArrayList<>();
+
+            for (Type realSubType : ((UnionType) realType).getElements()) {
+                //noinspection Convert2streamapi
+                for (Type mySubType : ((UnionType) myType).getElements()) {
+                    typePairs.add(new Pair<>(realSubType, mySubType));
+                }
+            }
+
+            findBest(typePairs, (evaluation) -> {
+                EvaluationVisitor.this.evaluation.add(evaluation);
+                callback.run();
+            }, prefix, extraDepth);
+        } else if (myType instanceof UnionType) {
+            findBest(((UnionType) myType).getElements().stream().map(elem -> new Pair<>(realType, elem)).collect(Collectors.toList()),
+                    (evaluation) -> {
+                        EvaluationVisitor.this.evaluation.add(evaluation);
+                        callback.run();
+                    }, prefix, extraDepth);
+        } else if (realType instanceof UnionType) {
+            findBest(((UnionType) realType).getElements().stream().map(elem -> new Pair<>(elem, myType)).collect(Collectors.toList()),
+                    (evaluation) -> {
+                        EvaluationVisitor.this.evaluation.add(evaluation);
+                        callback.run();
+                    }, prefix, extraDepth);
+        } else {
+            analyzeNextDepth(realType, myType, callback, prefix, extraDepth);
+        }
+    }
+
 
 
     private InterfaceType getCombinedInterface(UnionType realType) {
@@ -176,8 +205,8 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
             Type left = typePair.left;
             Type right = typePair.right;
 
-            Evaluation subEvaluation = Evaluation.create(options.debugPrint);
-            EvaluationVisitor visitor = new EvaluationVisitor(this.depth, subEvaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes);
+            Evaluation subEvaluation = this.evaluation.createEmpty();
+            EvaluationVisitor visitor = new EvaluationVisitor(this.depth, subEvaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes, this.memo);
 
             visitor.nextDepth(left, right, () -> {
                 evaluations.add(subEvaluation);
@@ -224,7 +253,7 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
         }
 
 
-        EvaluationVisitor visitor = new EvaluationVisitor(this.depth + extraDepth, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes);
+        EvaluationVisitor visitor = new EvaluationVisitor(this.depth + extraDepth, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes, this.memo);
         realType.accept(visitor, new Arg(myType, callback, prefix));
     }
 
@@ -459,7 +488,7 @@ public class EvaluationVisitor implements TypeVisitorWithArgument<Void, Evaluati
                 return inter;
             }).collect(Collectors.toList()));
 
-            EvaluationVisitor visitor = new EvaluationVisitor(this.depth - 1, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes);
+            EvaluationVisitor visitor = new EvaluationVisitor(this.depth - 1, this.evaluation, this.queue, this.nativeTypesInReal, this.realNativeClasses, this.myNativeClasses, this.emptyNativeClasses, this.seen, this.options, this.classInstanceTypes, this.memo);
             visitor.nextDepth(realUnion, myUnion, callback, prefix, 1);
         }
     }
@@ -1,41 +1,51 @@
 package dk.webbies.tscreate.evaluation;
 
-import dk.webbies.tscreate.Score;
 import dk.webbies.tscreate.evaluation.descriptions.Description;
-import dk.webbies.tscreate.util.Util;
 
-import java.util.*;
-import java.util.function.Function;
+import java.util.Arrays;
 
 /**
  * Created by Erik Krogh Kristensen on 14-12-2015.
+ *
+ * The counts are stored in int arrays indexed by depth (that grow when needed), so counting doesn't allocate anything.
  */
-public class FastEvaluation extends Evaluation<Integer> {
-
+public class FastEvaluation extends Evaluation {
+    private int[] falseNegatives = new int[8];
+    private int[] falsePositives = new int[8];
+    private int[] truePositive = new int[8];
 
     public FastEvaluation() {
         
     }
 
-    private void add(int depth, Map<Integer, Integer> map) {
-        maxDepth = Math.max(depth, maxDepth);
-        if (map.containsKey(depth)) {
-            map.put(depth, map.get(depth) + 1);
-        } else {
-            map.put(depth, 1);
+    @Override
+    Evaluation createEmpty() {
+        return new FastEvaluation();
+    }
+
+    private int[] ensureCapacity(int[] counts, int depth) {
+        if (depth < counts.length) {
+            return counts;
         }
+        return Arrays.copyOf(counts, Math.max(depth + 1, counts.length * 2));
     }
 
     public void addFalseNegative(int depth, Description description, String typePath) {
-        add(depth, falseNegatives);
+        maxDepth = Math.max(depth, maxDepth);
+        falseNegatives = ensureCapacity(falseNegatives, depth);
+        falseNegatives[depth]++;
     }
 
     public void addFalsePositive(int depth, Description description, String typePath) {
-        add(depth, falsePositives);
+        maxDepth = Math.max(depth, maxDepth);
+        falsePositives = ensureCapacity(falsePositives, depth);
+        falsePositives[depth]++;
     }
 
     public void addTruePositive(int depth, Description description, String typePath) {
-        add(depth, truePositive);
+        maxDepth = Math.max(depth, maxDepth);
+        truePositive = ensureCapacity(truePositive, depth);
+        truePositive[depth]++;
     }
 
     @Override
@@ -51,38 +61,72 @@ public class FastEvaluation extends Evaluation<Integer> {
         return get(depth, this.truePositive) + get(depth, this.falseNegatives);
     }
 
-    int get(int depth, Map<Integer, Integer> map) {
-        if (map.containsKey(depth)) {
-            return map.get(depth);
+    private static int get(int depth, int[] counts) {
+        if (depth >= 0 && depth < counts.length) {
+            return counts[depth];
         } else {
             return 0;
         }
     }
 
-
     public void add(Evaluation eval) {
         if (!(eval instanceof FastEvaluation)) {
             throw new RuntimeException();
         }
         FastEvaluation evaluation = (FastEvaluation) eval;
         this.maxDepth = Math.max(this.maxDepth, evaluation.maxDepth);
-        addAll(evaluation.falseNegatives, this.falseNegatives);
-        addAll(evaluation.falsePositives, this.falsePositives);
-        addAll(evaluation.truePositive, this.truePositive);
-    }
-
-    private void addAll(Map<Integer, Integer> from, Map<Integer, Integer> to) {
-        from.forEach((depth, list) -> {
-            for (Map.Entry<Integer, Integer> entry : from.entrySet()) {
-                Integer entryDepth = entry.getKey();
-                Integer count = entry.getValue();
-                if (to.containsKey(entryDepth)) {
-                    to.put(entryDepth, to.get(entryDepth) + count);
-                } else {
-                    to.put(entryDepth, count);
-                }
+        this.falseNegatives = addAll(evaluation.falseNegatives, this.falseNegatives);
+        this.falsePositives = addAll(evaluation.falsePositives, this.falsePositives);
+        this.truePositive = addAll(evaluation.truePositive, this.truePositive);
+    }
+
+    private int[] addAll(int[] from, int[] to) {
+        // Every count is added once for every depth that has a count in from.
+        // That is how it has always been counted (back when the counts were in maps), and changing it would change all the scores.
+        int times = 0;
+        int lastDepth = -1;
+        for (int depth = 0; depth < from.length; depth++) {
+            if (from[depth] != 0) {
+                times++;
+                lastDepth = depth;
             }
-        });
+        }
+        to = ensureCapacity(to, lastDepth);
+        for (int depth = 0; depth <= lastDepth; depth++) {
+            to[depth] += from[depth] * times;
+        }
+        return to;
+    }
+
+    @Override
+    void addRelocated(Evaluation eval, int depthShift, String fromPrefix, String toPrefix) {
+        if (!(eval instanceof FastEvaluation)) {
+            throw new RuntimeException();
+        }
+        FastEvaluation evaluation = (FastEvaluation) eval;
+        this.falseNegatives = addShifted(evaluation.falseNegatives, this.falseNegatives, depthShift);
+        this.falsePositives = addShifted(evaluation.falsePositives, this.falsePositives, depthShift);
+        this.truePositive = addShifted(evaluation.truePositive, this.truePositive, depthShift);
+    }
+
+    private int[] addShifted(int[] from, int[] to, int depthShift) {
+        for (int depth = 0; depth < from.length; depth++) {
+            if (from[depth] != 0) {
+                int newDepth = depth + depthShift;
+                maxDepth = Math.max(newDepth, maxDepth);
+                to = ensureCapacity(to, newDepth);
+                to[newDepth] += from[depth];
+            }
+        }
+        return to;
+    }
+
+    int getFalseNegatives(int depth) {
+        return get(depth, this.falseNegatives);
+    }
+
+    int getFalsePositives(int depth) {
+        return get(depth, this.falsePositives);
     }
 
     public int getTruePositives(int depth) {
@@ -0,0 +1,84 @@
+package dk.webbies.tscreate.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the type-paths (like "window.Ext.foo.[function].[arg0]") of a DebugEvaluation, as a trie split on ".", so the long shared prefixes are only stored once.
+ * A path is represented by the id of its last node.
+ *
+ * Shared by the evaluations made with Evaluation.createEmpty(), so statements can be moved between them without rebuilding the paths.
+ * Not thread-safe, a table is only used by the thread doing the evaluation.
+ */
+final class TypePathTable {
+    private static final int NO_PARENT = -1;
+
+    private int size = 0;
+    private int[] parents = new int[64];
+    private String[] segments = new String[64];
+    private final List<Map<String, Integer>> children = new ArrayList<>();
+    private final Map<String, Integer> roots = new HashMap<>();
+
+    int intern(String path) {
+        int node = NO_PARENT;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf('.', start);
+            String segment = end == -1 ? path.substring(start) : path.substring(start, end);
+            node = getOrCreate(node, segment);
+            if (end == -1) {
+                return node;
+            }
+            start = end + 1;
+        }
+    }
+
+    private int getOrCreate(int parent, String segment) {
+        Map<String, Integer> map;
+        if (parent == NO_PARENT) {
+            map = roots;
+        } else {
+            map = children.get(parent);
+            if (map == null) {
+                map = new HashMap<>(4);
+                children.set(parent, map);
+            }
+        }
+        Integer existing = map.get(segment);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            segments = Arrays.copyOf(segments, size * 2);
+        }
+        int node = size++;
+        parents[node] = parent;
+        segments[node] = segment;
+        children.add(null);
+        map.put(segment, node);
+        return node;
+    }
+
+    String get(int node) {
+        int length = -1;
+        for (int i = node; i != NO_PARENT; i = parents[i]) {
+            length += segments[i].length() + 1;
+        }
+        char[] result = new char[length];
+        int end = length;
+        for (int i = node; i != NO_PARENT; i = parents[i]) {
+            String segment = segments[i];
+            end -= segment.length();
+            segment.getChars(0, segment.length(), result, end);
+            if (end > 0) {
+                result[--end] = '.';
+            }
+        }
+        return new String(result);
+    }
+}
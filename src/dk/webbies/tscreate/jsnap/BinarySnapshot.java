@@ -0,0 +1,350 @@
+package dk.webbies.tscreate.jsnap;
+
+import dk.webbies.tscreate.paser.AST.FunctionExpression;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary version of a (resolved) JSNAP snapshot, that is written next to the cached JSON snapshot.
+ *
+ * The file is memory-mapped when read, and every Snap.Obj is allocated up front (indexed by its position in the file), so references are resolved as they are read, without any placeholder objects or extra passes over the heap.
+ * The objects are written by identity, so the graph read is exactly the one that was written.
+ *
+ * Format: header, string table, objects. Every name/type/string-constant is an index into the string table, and every reference to an object is an index into the objects (-1 for null).
+ */
+public class BinarySnapshot {
+    private static final int MAGIC = 0x4A534E42; // "JSNB"
+    private static final int VERSION = 2;
+
+    private static final byte NO_VALUE = 0;
+    private static final byte OBJECT = 1;
+    private static final byte NUMBER = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte STRING = 5;
+    private static final byte UNDEFINED = 6;
+    private static final byte NULL = 7;
+
+    private static final byte HAS_FUNCTION = 1;
+    private static final byte HAS_PROPERTIES = 2;
+
+    private BinarySnapshot() { }
+
+    /**
+     * @return The global object of the snapshot, or null if the binary snapshot doesn't exist, or isn't made from the current version of the JSON snapshot.
+     * The JSON snapshot is a content-addressed cache entry, so its name and length identifies it.
+     */
+    public static Snap.Obj read(File binaryFile, File jsnapFile, List<FunctionExpression> functions) {
+        if (!binaryFile.exists() || binaryFile.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(binaryFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != jsnapFile.length() || !readUTF(buffer).equals(jsnapFile.getName())) {
+                return null;
+            }
+            return new Reader(buffer, functions).read();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not read the binary snapshot " + binaryFile.getPath() + ", parsing the JSON instead. " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot reachable from the global object. The file is first written to a temporary file, and then moved into place.
+     * Failing to write is not an error, the JSON is then just parsed again next time.
+     */
+    public static void write(Snap.Obj global, File binaryFile, File jsnapFile) {
+        File tmpFile = new File(binaryFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(jsnapFile.length());
+                out.writeUTF(jsnapFile.getName());
+                new Writer(out).write(global);
+            }
+            Files.move(tmpFile.toPath(), binaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write the binary snapshot " + binaryFile.getPath() + ": " + e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    // The format of DataOutputStream.writeUTF, which only differs from UTF-8 for \0 and characters outside the BMP, none of which are in a file-name.
+    private static String readUTF(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<Snap.Obj, Integer> objectIndexes = new IdentityHashMap<>();
+        private final List<Snap.Obj> objects = new ArrayList<>();
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void write(Snap.Obj global) throws IOException {
+            collect(global);
+
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(objects.size());
+            out.writeInt(objectIndexes.get(global));
+            for (Snap.Obj obj : objects) {
+                writeObject(obj);
+            }
+        }
+
+        // Numbers every object (breadth first from the global object), and every string.
+        private void collect(Snap.Obj global) {
+            addObject(global);
+            for (int i = 0; i < objects.size(); i++) {
+                Snap.Obj obj = objects.get(i);
+                addObject(obj.env);
+                addObject(obj.prototype);
+                addObject(obj.recordedCalls);
+                if (obj.function != null) {
+                    addString(obj.function.type);
+                    addString(obj.function.id);
+                    if (obj.function.arguments != null) {
+                        obj.function.arguments.forEach(this::addValue);
+                    }
+                    addObject(obj.function.target);
+                    addObject(obj.function.instance);
+                }
+                if (obj.properties != null) {
+                    for (Snap.Property property : obj.properties) {
+                        addString(property.name);
+                        addValue(property.value);
+                        addValue(property.get);
+                        addValue(property.set);
+                    }
+                }
+            }
+        }
+
+        private void addValue(Snap.Value value) {
+            if (value instanceof Snap.Obj) {
+                addObject((Snap.Obj) value);
+            } else if (value instanceof Snap.StringConstant) {
+                addString(((Snap.StringConstant) value).value);
+            }
+        }
+
+        private void addObject(Snap.Obj obj) {
+            if (obj != null && !objectIndexes.containsKey(obj)) {
+                objectIndexes.put(obj, objects.size());
+                objects.add(obj);
+            }
+        }
+
+        private void addString(String string) {
+            if (string != null && !stringIndexes.containsKey(string)) {
+                stringIndexes.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+
+        private void writeObject(Snap.Obj obj) throws IOException {
+            out.writeInt(obj.key);
+            out.writeByte((obj.function != null ? HAS_FUNCTION : 0) | (obj.properties != null ? HAS_PROPERTIES : 0));
+            writeRef(obj.env);
+            writeRef(obj.prototype);
+            writeRef(obj.recordedCalls);
+            if (obj.function != null) {
+                Snap.Function function = obj.function;
+                writeString(function.type);
+                writeString(function.id);
+                if (function.arguments == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(function.arguments.size());
+                    for (Snap.Value argument : function.arguments) {
+                        writeValue(argument);
+                    }
+                }
+                writeRef(function.target);
+                writeRef(function.instance);
+            }
+            if (obj.properties != null) {
+                out.writeInt(obj.properties.size());
+                for (Snap.Property property : obj.properties) {
+                    writeString(property.name);
+                    out.writeByte(encode(property.writeable) | encode(property.configurable) << 2 | encode(property.enumerable) << 4);
+                    writeValue(property.value);
+                    writeValue(property.get);
+                    writeValue(property.set);
+                }
+            }
+        }
+
+        private int encode(Boolean bool) {
+            return bool == null ? 0 : bool ? 2 : 1;
+        }
+
+        private void writeValue(Snap.Value value) throws IOException {
+            if (value == null) {
+                out.writeByte(NO_VALUE);
+            } else if (value instanceof Snap.Obj) {
+                out.writeByte(OBJECT);
+                writeRef((Snap.Obj) value);
+            } else if (value instanceof Snap.NumberConstant) {
+                out.writeByte(NUMBER);
+                out.writeDouble(((Snap.NumberConstant) value).value);
+            } else if (value instanceof Snap.BooleanConstant) {
+                out.writeByte(((Snap.BooleanConstant) value).value ? TRUE : FALSE);
+            } else if (value instanceof Snap.StringConstant) {
+                out.writeByte(STRING);
+                writeString(((Snap.StringConstant) value).value);
+            } else if (value instanceof Snap.UndefinedConstant) {
+                out.writeByte(UNDEFINED);
+            } else if (value instanceof Snap.NullConstant) {
+                out.writeByte(NULL);
+            } else {
+                throw new RuntimeException("Unknown value " + value.getClass().getName());
+            }
+        }
+
+        private void writeRef(Snap.Obj obj) throws IOException {
+            out.writeInt(obj == null ? -1 : objectIndexes.get(obj));
+        }
+
+        private void writeString(String string) throws IOException {
+            out.writeInt(string == null ? -1 : stringIndexes.get(string));
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final List<FunctionExpression> functions;
+        private String[] strings;
+        private Snap.Obj[] objects;
+
+        private Reader(ByteBuffer buffer, List<FunctionExpression> functions) {
+            this.buffer = buffer;
+            this.functions = functions;
+        }
+
+        private Snap.Obj read() {
+            strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            objects = new Snap.Obj[buffer.getInt()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = new Snap.Obj();
+            }
+            Snap.Obj global = objects[buffer.getInt()];
+            for (Snap.Obj obj : objects) {
+                readObject(obj);
+            }
+            return global;
+        }
+
+        private void readObject(Snap.Obj obj) {
+            obj.key = buffer.getInt();
+            byte flags = buffer.get();
+            obj.env = readRef();
+            obj.prototype = readRef();
+            obj.recordedCalls = readRef();
+            if ((flags & HAS_FUNCTION) != 0) {
+                Snap.Function function = new Snap.Function();
+                function.type = readString();
+                function.id = readString();
+                int arguments = buffer.getInt();
+                if (arguments != -1) {
+                    function.arguments = new ArrayList<>(arguments);
+                    for (int i = 0; i < arguments; i++) {
+                        function.arguments.add(readValue());
+                    }
+                }
+                function.target = readRef();
+                function.instance = readRef();
+                if (function.type.equals("user")) {
+                    function.astNode = functions.get(Integer.parseInt(function.id));
+                }
+                obj.function = function;
+            }
+            if ((flags & HAS_PROPERTIES) != 0) {
+                int size = buffer.getInt();
+                obj.properties = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Snap.Property property = new Snap.Property();
+                    property.name = readString();
+                    byte booleans = buffer.get();
+                    property.writeable = decode(booleans);
+                    property.configurable = decode(booleans >> 2);
+                    property.enumerable = decode(booleans >> 4);
+                    property.value = readValue();
+                    property.get = readValue();
+                    property.set = readValue();
+                    obj.properties.add(property);
+                }
+            }
+        }
+
+        private Boolean decode(int bits) {
+            switch (bits & 3) {
+                case 0: return null;
+                case 1: return false;
+                default: return true;
+            }
+        }
+
+        private Snap.Value readValue() {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NO_VALUE: return null;
+                case OBJECT: return readRef();
+                case NUMBER: return new Snap.NumberConstant(buffer.getDouble());
+                case TRUE: return new Snap.BooleanConstant(true);
+                case FALSE: return new Snap.BooleanConstant(false);
+                case STRING: return new Snap.StringConstant(readString());
+                case UNDEFINED: return new Snap.UndefinedConstant();
+                case NULL: return new Snap.NullConstant();
+                default:
+                    throw new RuntimeException("Unknown value tag " + tag);
+            }
+        }
+
+        private Snap.Obj readRef() {
+            int index = buffer.getInt();
+            return index == -1 ? null : objects[index];
+        }
+
+        private String readString() {
+            int index = buffer.getInt();
+            return index == -1 ? null : strings[index];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package dk.webbies.tscreate.jsnap;
+
+import java.util.*;
+
+/**
+ * The variables visible from a closure environment (an env and all its parent envs), by name.
+ * Where more than one env in the chain has a variable with the same name, the innermost one is used.
+ *
+ * The map for an env is built from the map of its parent env, and is remembered, so closures that share an environment (like all the methods of a module) share the map.
+ * An env without any variables of its own simply uses the map of its parent.
+ *
+ * Can be used by several threads at once (the constraints are generated in parallel).
+ */
+public final class EnvironmentIndex {
+    private final Map<Snap.Obj, Map<String, Snap.Property>> bindings = Collections.synchronizedMap(new IdentityHashMap<>()); // By identity, as Snap.Obj equality only compares keys.
+
+    /**
+     * @return An unmodifiable map of the variables visible in env (an empty map if env is null).
+     */
+    public Map<String, Snap.Property> getBindings(Snap.Obj env) {
+        if (env == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Snap.Property> result = bindings.get(env);
+        if (result != null) {
+            return result;
+        }
+
+        // The envs up to the first one that is already known (or the root), outermost last.
+        List<Snap.Obj> missing = new ArrayList<>();
+        Set<Snap.Obj> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, Snap.Property> parentBindings = Collections.emptyMap();
+        for (Snap.Obj current = env; current != null && seen.add(current); current = current.env) {
+            Map<String, Snap.Property> known = bindings.get(current);
+            if (known != null) {
+                parentBindings = known;
+                break;
+            }
+            missing.add(current);
+        }
+
+        for (int i = missing.size() - 1; i >= 0; i--) {
+            Snap.Obj current = missing.get(i);
+            Map<String, Snap.Property> currentBindings = parentBindings;
+            if (current.properties != null && !current.properties.isEmpty()) {
+                Map<String, Snap.Property> map = new HashMap<>(parentBindings);
+                // Backwards, so the first of two variables with the same name wins.
+                for (int j = current.properties.size() - 1; j >= 0; j--) {
+                    Snap.Property property = current.properties.get(j);
+                    map.put(property.name, property);
+                }
+                currentBindings = Collections.unmodifiableMap(map);
+            }
+            Map<String, Snap.Property> existing = bindings.putIfAbsent(current, currentBindings);
+            parentBindings = existing != null ? existing : currentBindings;
+        }
+        return parentBindings;
+    }
+
+    /**
+     * @return The variable with the given name visible in env, or null if there is none.
+     */
+    public Snap.Property lookup(Snap.Obj env, String name) {
+        return getBindings(env).get(name);
+    }
+}
@@ -2,22 +2,15 @@ package dk.webbies.tscreate.jsnap;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.TypeAdapter;
-import com.google.gson.TypeAdapterFactory;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonToken;
-import com.google.gson.stream.JsonWriter;
 import com.google.javascript.jscomp.parsing.parser.util.SourceRange;
 import dk.webbies.tscreate.Options;
+import dk.webbies.tscreate.analysis.jsdoc.JSDocParser;
 import dk.webbies.tscreate.paser.AST.*;
+import dk.webbies.tscreate.util.ContentCache;
 import dk.webbies.tscreate.util.Util;
 import org.apache.http.HttpException;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -29,20 +22,29 @@ public class JSNAPUtil {
     }
 
     public static String getEmptyJSNAPString(Options options, List<String> dependencies) throws IOException {
+        return getEmptyJsnapEntry(options, dependencies).read();
+    }
+
+    private static ContentCache.Entry getEmptyJsnapEntry(Options options, List<String> dependencies) throws IOException {
         if (options.runtime == Options.Runtime.CHROME) {
-            return getJsnapRaw("", options, "onlyDom.jsnap", "lib/selenium", dependencies, Collections.EMPTY_LIST, false);
+            return getJsnapEntry("", options, "onlyDom.jsnap", "lib/selenium", dependencies, Collections.EMPTY_LIST, false);
         } else {
-            return getJsnapRaw("", options, "onlyDom.jsnap", "node_modules/jsnap/node_modules/phantomjs/lib/phantom", dependencies, Collections.EMPTY_LIST, false);
+            return getJsnapEntry("", options, "onlyDom.jsnap", "node_modules/jsnap/node_modules/phantomjs/lib/phantom", dependencies, Collections.EMPTY_LIST, false);
         }
     }
 
     private static String getJsnapRaw(String scriptPath, Options options, String cachePath, String checkAgainst, List<String> dependencies, List<String> testFiles, boolean asyncTests) throws IOException {
+        return getJsnapEntry(scriptPath, options, cachePath, checkAgainst, dependencies, testFiles, asyncTests).read();
+    }
+
+    // Returns the entry in the cache holding the (JSON) snapshot, creating it first if needed.
+    private static ContentCache.Entry getJsnapEntry(String scriptPath, Options options, String cachePath, String checkAgainst, List<String> dependencies, List<String> testFiles, boolean asyncTests) throws IOException {
         StringBuilder testFileString = new StringBuilder();
         for (String testFile : testFiles) {
             testFileString.append(testFile).append(" ");
         }
         if (!testFiles.isEmpty()) {
-            cachePath += "." + testFileString.toString().hashCode();
+            cachePath += ".tests";
         }
         scriptPath = scriptPath + " " + testFileString.toString();
 
@@ -72,12 +74,14 @@ public class JSNAPUtil {
             filesToCheckAgainst.add(new File(checkAgainst));
         }
         dependencies.stream().map(File::new).forEach(filesToCheckAgainst::add);
+        testFiles.stream().map(File::new).forEach(filesToCheckAgainst::add);
+        filesToCheckAgainst.add(new File("node_modules/jsnap/jsnap.js"));
 
         if (options.runtime == Options.Runtime.CHROME) {
 
             String instrumented = Util.getCachedOrRunNode(cachePath + ".instrumented", filesToCheckAgainst, jsnapPath + " --onlyInstrument " + scriptPath);
 
-            return Util.getCachedOrRun(cachePath + ".selinium", filesToCheckAgainst, () -> {
+            return Util.getCachedEntryOrRun(cachePath + ".selinium", cachePath + ".selinium " + jsnapPath + " " + scriptPath, filesToCheckAgainst, () -> {
                 try {
                     return SeleniumDriver.executeScript(instrumented);
                 } catch (HttpException | IOException e) {
@@ -92,26 +96,64 @@ public class JSNAPUtil {
                 default:
                     throw new RuntimeException("Dont know runtime: " + options.runtime);
             }
-            return Util.getCachedOrRunNode(cachePath, filesToCheckAgainst, nodeArgs);
+            return Util.getCachedEntryOrRun(cachePath, cachePath + " " + nodeArgs, filesToCheckAgainst, () -> {
+                try {
+                    return Util.runNodeScript(nodeArgs);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
         } else {
             throw new RuntimeException("Unknwon runtime environment " + options.runtime);
         }
     }
 
     public static Snap.Obj getEmptyJSnap(Options options, List<String> dependencies, FunctionExpression emptyProgram) throws IOException {
-        return JSNAPUtil.getStateDump(JSNAPUtil.getEmptyJSNAPString(options, dependencies), emptyProgram);
+        return loadStateDump(getEmptyJsnapEntry(options, dependencies), options, emptyProgram);
     }
 
-    public static Snap.Obj getStateDump(String jsnapRaw, FunctionExpression program) {
-        GsonBuilder builder = new GsonBuilder();
+    /**
+     * Same as getStateDump(getJsnapRaw(...), program), except that the binary snapshot is used if options.binarySnapshots is set.
+     */
+    public static Snap.Obj getJsnap(String path, Options options, List<String> dependencies, List<String> testFiles, boolean asyncTests, FunctionExpression program) throws IOException {
+        return loadStateDump(getJsnapEntry(path, options, path + ".jsnap", path, dependencies, testFiles, asyncTests), options, program);
+    }
+
+    private static Snap.Obj loadStateDump(ContentCache.Entry jsnapEntry, Options options, FunctionExpression program) throws IOException {
         List<FunctionExpression> functions = getFunctions(program);
-        builder.registerTypeAdapterFactory(new KeyTypeFactory());
-        Gson gson = builder.create();
-        Snap.StateDump stateDump = gson.fromJson(jsnapRaw, Snap.StateDump.class);
-        resolveFunctions(stateDump, functions);
-        resolveKeys(stateDump);
+        if (options.useJSDoc) {
+            // All the JSDoc is parsed up front, in batches, instead of one comment at a time during the analysis.
+            JSDocParser.parseAll(functions);
+        }
+        if (!options.binarySnapshots) {
+            return readStateDump(jsnapEntry, functions).getGlobal();
+        }
+        File jsnapFile = jsnapEntry.getFile();
+        File binaryFile = new File(jsnapFile.getPath() + ".bin");
+
+        Snap.Obj global = BinarySnapshot.read(binaryFile, jsnapFile, functions);
+        if (global != null) {
+            return global;
+        }
+
+        global = readStateDump(jsnapEntry, functions).getGlobal();
+        BinarySnapshot.write(global, binaryFile, jsnapFile);
+        return global;
+    }
 
-        return stateDump.getGlobal();
+    // Streams the JSON from the cache, so the raw snapshot is never in memory as one big string.
+    private static Snap.StateDump readStateDump(ContentCache.Entry jsnapEntry, List<FunctionExpression> functions) throws IOException {
+        try (Reader reader = jsnapEntry.openReader()) {
+            return new StateDumpReader(reader, functions).read();
+        }
+    }
+
+    public static Snap.Obj getStateDump(String jsnapRaw, FunctionExpression program) {
+        try {
+            return new StateDumpReader(new StringReader(jsnapRaw), getFunctions(program)).read().getGlobal();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public static List<FunctionExpression> getFunctions(FunctionExpression program) {
@@ -182,159 +224,6 @@ public class JSNAPUtil {
         }
     }
 
-    private static void resolveFunctions(Snap.StateDump stateDump, List<FunctionExpression> functions) {
-        for (Snap.Obj obj : stateDump.heap) {
-            if (obj == null || obj.function == null) {
-                continue;
-            }
-            Snap.Function function = obj.function;
-            if (function.type.equals("user")) {
-                int id = Integer.parseInt(function.id);
-                function.astNode = functions.get(id);
-            } else if (function.type.equals("bind")) {
-                function.target = getHeapObject(stateDump, (function.target).key);
-                obj.env = function.target.env;
-                if (!function.target.function.type.equals("user")) {
-                    function.type = "unknown"; // Such an edge case, i choose to ignore it (happens in React).
-                }
-            }
-        }
-    }
-
-    private static void resolveKeys(Snap.StateDump stateDump) {
-        for (int i = 1; i < stateDump.heap.size(); i++) {
-            Snap.Obj obj = stateDump.heap.get(i);
-            if (obj == null) {
-                continue;
-            }
-            obj.key = i;
-        }
-        for (Snap.Obj obj : stateDump.heap) {
-            resolveKeys(stateDump, obj);
-        }
-        Collection<Snap.Obj> allObjects = JSNAPUtil.getAllObjects(stateDump.getGlobal());
-        for (Snap.Obj obj : allObjects) {
-            resolveKeys(stateDump, obj);
-        }
-    }
-
-    private static void resolveKeys(Snap.StateDump stateDump, Snap.Obj obj) {
-        if (obj == null || obj.properties == null) {
-            return;
-        }
-        if (obj.function != null && obj.function.instance != null) {
-            int key = obj.function.instance.key;
-            obj.function.instance = getHeapObject(stateDump, key);
-        }
-        if (obj.function != null && obj.function.target != null) {
-            obj.function.target = getHeapObject(stateDump, obj.function.target.key);
-        }
-        if (obj.env != null) {
-            obj.env = getHeapObject(stateDump, obj.env.key);
-        }
-        if (obj.prototype != null) {
-            obj.prototype = getHeapObject(stateDump, obj.prototype.key);
-        }
-        if (obj.recordedCalls != null) {
-            obj.recordedCalls = getHeapObject(stateDump, obj.recordedCalls.key);
-        }
-        for (Snap.Property prop : obj.properties) {
-            if (prop.value instanceof Snap.Obj) {
-                prop.value = getHeapObject(stateDump, ((Snap.Obj) prop.value).key);
-
-                Snap.Obj propValue = (Snap.Obj) prop.value;
-                if (propValue.env != null) {
-                    propValue.env = getHeapObject(stateDump, (propValue.env).key);
-                }
-                if (propValue.prototype != null) {
-                    propValue.prototype = getHeapObject(stateDump, (propValue.prototype).key);
-                }
-            }
-            if (prop.get != null && prop.get instanceof Snap.Obj) {
-                prop.get = getHeapObject(stateDump, ((Snap.Obj) prop.get).key);
-            }
-            if (prop.set != null && prop.set instanceof Snap.Obj) {
-                prop.set = getHeapObject(stateDump, ((Snap.Obj) prop.set).key);
-            }
-        }
-    }
-
-    private static Snap.Obj getHeapObject(Snap.StateDump stateDump, int key) {
-        Snap.Obj result = stateDump.heap.get(key);
-        if (result == null) { // Happens in Chrome.
-            Snap.Obj obj = new Snap.Obj();
-            obj.properties = new ArrayList<>();
-            stateDump.heap.set(key, obj);
-            return obj;
-        }
-        return result;
-    }
-
-    private static class KeyTypeFactory implements TypeAdapterFactory {
-        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
-            Class<T> rawType = (Class<T>) type.getRawType();
-            if (!rawType.equals(Snap.Value.class)) {
-                return null;
-            }
-
-            return new TypeAdapter<T>() {
-                public void write(JsonWriter out, T value) throws IOException {
-                    throw new RuntimeException("Cannot write these now");
-                }
-
-                public T read(JsonReader reader) throws IOException {
-                    if (reader.peek() == JsonToken.NULL) {
-                        reader.nextNull();
-                        return (T) new Snap.NullConstant();
-                    }
-                    if (reader.peek() == JsonToken.STRING) {
-                        return (T) new Snap.StringConstant(reader.nextString());
-                    }
-                    if (reader.peek() == JsonToken.BOOLEAN) {
-                        return (T) new Snap.BooleanConstant(reader.nextBoolean());
-                    }
-                    if (reader.peek() == JsonToken.NUMBER) {
-                        return (T) new Snap.NumberConstant(reader.nextDouble());
-                    }
-
-                    reader.beginObject();
-                    reader.nextName();
-                    int key;
-                    if (reader.peek() == JsonToken.BOOLEAN) {
-                        reader.nextBoolean();
-                        reader.endObject();
-                        return (T) new Snap.UndefinedConstant();
-                    } else {
-                        if (reader.peek() == JsonToken.NUMBER) {
-                            key = reader.nextInt();
-                        } else if (reader.peek() == JsonToken.STRING) {
-                            key = Integer.parseInt(reader.nextString());
-                        } else if (reader.peek() == JsonToken.BEGIN_OBJECT){
-                            // TODO This happens in three.js, it is an object with __jsnapHiddenProp__ values defined on it. Properly something to do with the ES6 getters and setters.
-                            // There are also some closures, where env.properties == null.
-                            reader.beginObject();
-                            reader.nextName();
-                            reader.nextBoolean();
-                            reader.nextName();
-                            reader.nextString();
-                            reader.endObject();
-
-                            key = 0;
-                        } else {
-                            throw new RuntimeException("Did really not expect " + reader.peek());
-                        }
-                    }
-
-                    reader.endObject();
-
-                    Snap.Obj obj = new Snap.Obj();
-                    obj.key = key;
-                    return (T) obj;
-                }
-            };
-        }
-    }
-
     public static Collection<Snap.Obj> getAllObjects(Snap.Obj root) {
         Set<Snap.Obj> result = new HashSet<>();
         getAllObjects(root, result);
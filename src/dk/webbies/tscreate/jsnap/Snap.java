@@ -24,7 +24,7 @@ public class Snap {
         public Obj prototype;
         public Obj recordedCalls;
         public List<Property> properties;
-        public Map<String, Property> propertyMap = null;
+        public volatile Map<String, Property> propertyMap = null;
         public Property getProperty(String name) {
             if (properties == null) {
                 return null;
@@ -33,7 +33,9 @@ public class Snap {
         }
 
         public Map<String, Property> getPropertyMap() {
+            Map<String, Property> propertyMap = this.propertyMap;
             if (propertyMap == null) {
+                // Built before it is published, since the snapshot is read from several threads when generating constraints in parallel.
                 if (this.properties == null) {
                     propertyMap = Collections.EMPTY_MAP;
                 } else {
@@ -42,6 +44,7 @@ public class Snap {
                         propertyMap.put(property.name, property);
                     }
                 }
+                this.propertyMap = propertyMap;
             }
             return propertyMap;
         }
@@ -0,0 +1,320 @@
+package dk.webbies.tscreate.jsnap;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import dk.webbies.tscreate.paser.AST.FunctionExpression;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a JSNAP snapshot in a single streaming pass.
+ *
+ * Every heap object is allocated exactly once, the first time its key is seen (either as a reference, or as the heap entry itself), and is then filled in when its heap entry is read.
+ * So a reference to an object later in the heap is simply the (not yet filled in) object from the key-indexed array, and no placeholders has to be replaced afterwards.
+ */
+class StateDumpReader {
+    private final JsonReader reader;
+    private final List<FunctionExpression> functions;
+
+    private Snap.Obj[] objects = new Snap.Obj[1024]; // Indexed by key.
+    private boolean[] inHeap = new boolean[1024];
+    private final List<Snap.Obj> bindFunctions = new ArrayList<>();
+
+    StateDumpReader(Reader in, List<FunctionExpression> functions) {
+        this.reader = new JsonReader(in);
+        this.reader.setLenient(true);
+        this.functions = functions;
+    }
+
+    Snap.StateDump read() throws IOException {
+        Snap.StateDump stateDump = new Snap.StateDump();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "global":
+                    stateDump.global = reader.nextInt();
+                    break;
+                case "heap":
+                    stateDump.heap = readHeap();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        resolveBindFunctions();
+
+        return stateDump;
+    }
+
+    private List<Snap.Obj> readHeap() throws IOException {
+        List<Snap.Obj> heap = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int key = heap.size();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                heap.add(null);
+            } else {
+                Snap.Obj obj = getObject(key);
+                readHeapObject(obj);
+                if (key >= 1) {
+                    obj.key = key;
+                }
+                markInHeap(key);
+                heap.add(obj);
+            }
+        }
+        reader.endArray();
+
+        // Objects that are referenced, but not in the heap (happens in Chrome), are empty objects.
+        // Their key is left as 0, same as it has always been.
+        for (int key = 0; key < objects.length; key++) {
+            Snap.Obj obj = objects[key];
+            if (obj != null && !inHeap[key]) {
+                obj.properties = new ArrayList<>();
+                while (heap.size() <= key) {
+                    heap.add(null);
+                }
+                heap.set(key, obj);
+            }
+        }
+        return heap;
+    }
+
+    private void readHeapObject(Snap.Obj obj) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "key":
+                    obj.key = reader.nextInt();
+                    break;
+                case "function":
+                    obj.function = readFunction(obj);
+                    break;
+                case "env":
+                    obj.env = readReference();
+                    break;
+                case "prototype":
+                    obj.prototype = readReference();
+                    break;
+                case "recordedCalls":
+                    obj.recordedCalls = readReference();
+                    break;
+                case "properties":
+                    obj.properties = readProperties();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private Snap.Function readFunction(Snap.Obj obj) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        Snap.Function function = new Snap.Function();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    function.type = readString();
+                    break;
+                case "id":
+                    function.id = readString();
+                    break;
+                case "arguments":
+                    function.arguments = readValues();
+                    break;
+                case "target":
+                    function.target = readReference();
+                    break;
+                case "instance":
+                    function.instance = readReference();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ("user".equals(function.type)) {
+            function.astNode = functions.get(Integer.parseInt(function.id));
+        } else if ("bind".equals(function.type)) {
+            bindFunctions.add(obj);
+        }
+        return function;
+    }
+
+    // Needs the whole heap, since the target can be anywhere in it.
+    private void resolveBindFunctions() {
+        for (Snap.Obj obj : bindFunctions) {
+            Snap.Function function = obj.function;
+            obj.env = function.target.env;
+            if (!function.target.function.type.equals("user")) {
+                function.type = "unknown"; // Such an edge case, i choose to ignore it (happens in React).
+            }
+        }
+    }
+
+    private List<Snap.Property> readProperties() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<Snap.Property> result = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Snap.Property property = new Snap.Property();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        property.name = readString();
+                        break;
+                    case "writeable":
+                        property.writeable = readBoolean();
+                        break;
+                    case "configurable":
+                        property.configurable = readBoolean();
+                        break;
+                    case "enumerable":
+                        property.enumerable = readBoolean();
+                        break;
+                    case "value":
+                        property.value = readValue();
+                        break;
+                    case "get":
+                        property.get = readValue();
+                        break;
+                    case "set":
+                        property.set = readValue();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            result.add(property);
+        }
+        reader.endArray();
+        return result;
+    }
+
+    private List<Snap.Value> readValues() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<Snap.Value> result = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            result.add(readValue());
+        }
+        reader.endArray();
+        return result;
+    }
+
+    private Snap.Value readValue() throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                reader.nextNull();
+                return new Snap.NullConstant();
+            case STRING:
+                return new Snap.StringConstant(reader.nextString());
+            case BOOLEAN:
+                return new Snap.BooleanConstant(reader.nextBoolean());
+            case NUMBER:
+                return new Snap.NumberConstant(reader.nextDouble());
+        }
+
+        reader.beginObject();
+        reader.nextName();
+        int key;
+        switch (reader.peek()) {
+            case BOOLEAN:
+                reader.nextBoolean();
+                reader.endObject();
+                return new Snap.UndefinedConstant();
+            case NUMBER:
+                key = reader.nextInt();
+                break;
+            case STRING:
+                key = Integer.parseInt(reader.nextString());
+                break;
+            case BEGIN_OBJECT:
+                // TODO This happens in three.js, it is an object with __jsnapHiddenProp__ values defined on it. Properly something to do with the ES6 getters and setters.
+                // There are also some closures, where env.properties == null.
+                reader.skipValue();
+                key = 0;
+                break;
+            default:
+                throw new RuntimeException("Did really not expect " + reader.peek());
+        }
+        reader.endObject();
+
+        return getObject(key);
+    }
+
+    // A reference to a heap object, on the form {"key": 123}.
+    private Snap.Obj readReference() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        int key = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("key")) {
+                key = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return getObject(key);
+    }
+
+    private String readString() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private Boolean readBoolean() throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextBoolean();
+    }
+
+    private Snap.Obj getObject(int key) {
+        if (key >= objects.length) {
+            int newLength = Math.max(key + 1, objects.length * 2);
+            objects = Arrays.copyOf(objects, newLength);
+            inHeap = Arrays.copyOf(inHeap, newLength);
+        }
+        Snap.Obj obj = objects[key];
+        if (obj == null) {
+            obj = new Snap.Obj();
+            objects[key] = obj;
+        }
+        return obj;
+    }
+
+    private void markInHeap(int key) {
+        getObject(key);
+        inHeap[key] = true;
+    }
+}
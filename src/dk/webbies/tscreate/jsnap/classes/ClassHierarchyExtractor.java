@@ -102,7 +102,13 @@ public class ClassHierarchyExtractor {
         // Reason for two passes: Names look prettier when we don't go through the environment.
         List<Snap.Obj> missingEnvs = this.extractClasses("window", this.globalObject, libraryClasses, seen);
 
+        // Many closures share the same env, every env only has to be visited once (extractClasses doesn't do anything for an object it has already seen).
+        // By identity, as Snap.Obj equality only compares keys.
+        Set<Snap.Obj> visitedEnvs = Collections.newSetFromMap(new IdentityHashMap<>());
         for (Snap.Obj missinEnv : missingEnvs) {
+            if (!visitedEnvs.add(missinEnv)) {
+                continue;
+            }
             for (Snap.Property property : missinEnv.properties) {
                 if (property.value instanceof Snap.Obj) {
                     Snap.Obj obj = (Snap.Obj) property.value;
@@ -65,7 +65,8 @@ public class LibraryClass {
 
     public UnionNode getNewThisNode(UnionFindSolver solver) {
         EmptyNode result = new EmptyNode(solver);
-        thisNodes.add(result);
+        // When the constraints are recorded (maybe by several threads at once), the node is added when the recorded batch is applied. So the order of thisNodes is the same as without recording.
+        solver.whenApplied(() -> thisNodes.add(result));
         return result;
     }
 
@@ -107,7 +108,7 @@ public class LibraryClass {
         }
 
         if (name.matches("[0-9]+.{0,}") || name.equals("[proto]") || name.equals("constructor") || name.equals("default")) {
-            name = "interface_" + InterfaceDeclarationType.interfaceCounter++;
+            name = "interface_" + InterfaceDeclarationType.interfaceCounter.getAndIncrement();
         }
         if (name.contains("-")) {
             name = name.replace("-", "");
@@ -3,6 +3,7 @@ package dk.webbies.tscreate.main;
 import dk.au.cs.casa.typescript.types.*;
 import dk.webbies.tscreate.BenchMark;
 import dk.webbies.tscreate.util.LookupType;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.Options;
 import dk.webbies.tscreate.evaluation.DebugEvaluation;
 
@@ -37,6 +38,7 @@ public class CompareVersions {
         if (oldVersion.getOptions().evaluationMethod != Options.EvaluationMethod.EVERYTHING) {
             throw new RuntimeException("Not setup for this");
         }
+        NodeWorkerPool.configure(oldVersion.getOptions());
 
         String oldBenchResultingDecPath = Main.getResultingDeclarationPath(oldVersion);
         if (!new File(oldBenchResultingDecPath).exists()) {
@@ -78,7 +80,7 @@ public class CompareVersions {
     }
 
     public static List<DebugEvaluation.EvaluationStatement> compareHandWritten(BenchMark oldBench, BenchMark newBench) throws IOException {
-        return ((DebugEvaluation)Main.getEvaluation(oldBench, newBench.declarationPath, 0)).getAllStatements().stream().filter(stmt -> stmt.type != TRUE_POSITIVE).sorted(sortStmts).collect(Collectors.toList());
+        return ((DebugEvaluation)Main.getEvaluation(oldBench, newBench.declarationPath, 0)).getFalseStatements();
     }
 
     public static Set<DebugEvaluation.EvaluationStatement> compareTheTwo(BenchMark benchMark, BenchMark newScript) throws IOException {
@@ -0,0 +1,229 @@
+package dk.webbies.tscreate.main;
+
+import dk.webbies.tscreate.Options;
+import dk.webbies.tscreate.analysis.declarations.DeclarationPrinter;
+import dk.webbies.tscreate.analysis.declarations.types.*;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Prints some small declarations, where functions/objects has to be printed as interfaces (because of cycles etc.), and checks that they are printed as they were when this was written.
+ * Each is printed both without and with Options.findInterfacesBeforePrinting. Without, it is the output of the original printer, which must not change.
+ *
+ * Run it after changing the DeclarationPrinter or the CyclicTypeFinder, it exits with 1 if anything is printed differently.
+ */
+public class DeclarationPrinterTest {
+    public static void main(String[] args) {
+        int failed = 0;
+        for (TestCase testCase : testCases()) {
+            for (boolean findInterfacesBeforePrinting : Arrays.asList(false, true)) {
+                Options options = new Options();
+                options.findInterfacesBeforePrinting = findInterfacesBeforePrinting;
+                InterfaceDeclarationType.interfaceCounter.set(0);
+                String printed = new DeclarationPrinter(testCase.declarations.get(), null, options).print();
+
+                String expected = findInterfacesBeforePrinting ? testCase.expectedFoundBeforePrinting : testCase.expected;
+                String name = testCase.name + (findInterfacesBeforePrinting ? " (findInterfacesBeforePrinting)" : "");
+                if (printed.equals(expected)) {
+                    System.out.println("OK: " + name);
+                } else {
+                    failed++;
+                    System.out.println("FAILED: " + name);
+                    System.out.println("Expected:\n" + expected);
+                    System.out.println("Got:\n" + printed);
+                }
+            }
+        }
+        System.out.println(failed == 0 ? "All passed" : failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static final class TestCase {
+        private final String name;
+        private final Supplier<Map<String, DeclarationType>> declarations; // New types every time, so nothing is shared between the prints.
+        private final String expected;
+        private final String expectedFoundBeforePrinting;
+
+        private TestCase(String name, Supplier<Map<String, DeclarationType>> declarations, String expected, String expectedFoundBeforePrinting) {
+            this.name = name;
+            this.declarations = declarations;
+            this.expected = expected;
+            this.expectedFoundBeforePrinting = expectedFoundBeforePrinting;
+        }
+
+        private TestCase(String name, Supplier<Map<String, DeclarationType>> declarations, String expected) {
+            this(name, declarations, expected, expected);
+        }
+    }
+
+    private static List<TestCase> testCases() {
+        List<TestCase> result = new ArrayList<>();
+
+        result.add(new TestCase("function returning itself", () -> {
+            FunctionType self = function(number());
+            self.setReturnType(self);
+            return module("m0", function(self));
+        },
+                "declare module lib {\n"
+                + "    export function m0(): function_0;\n"
+                + "}\n"
+                + "interface function_0 {\n"
+                + "    () : function_0;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("objects referring to each other", () -> {
+            UnnamedObjectType one = object("f0", number());
+            UnnamedObjectType two = object("f0", one, "f1", number());
+            one.getDeclarations().put("f1", two);
+            return module("m0", function(one), "m1", function(two));
+        },
+                "declare module lib {\n"
+                + "    export function m0(): {f0: number, f1: interface_0};\n"
+                + "    export function m1(): interface_0;\n"
+                + "}\n"
+                + "interface interface_0 {\n"
+                + "    f0: {f0: number, f1: interface_0};\n"
+                + "    f1: number;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("array of a function", () -> {
+            FunctionType indexType = function(number());
+            return module("m0", function(number(), array(indexType)));
+        },
+                "declare module lib {\n"
+                + "    export function m0(a0: Array<function_0>): number;\n"
+                + "}\n"
+                + "interface function_0 {\n"
+                + "    () : number;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("array of a named function", () -> {
+            FunctionType m0 = function(number());
+            m0.setArguments(Collections.singletonList(new FunctionType.Argument("a0", array(m0))));
+            return module("m0", m0);
+        },
+                "declare module lib {\n"
+                + "    export var m0: function_0;\n"
+                + "}\n"
+                + "interface function_0 {\n"
+                + "    (a0: Array<typeof lib.m0>) : number;\n"
+                + "}\n"
+                + "\n",
+                "declare module lib {\n"
+                + "    export function m0(a0: Array<typeof lib.m0>): number;\n"
+                + "}\n"));
+
+        result.add(new TestCase("object too long to be printed inline", () -> {
+            UnnamedObjectType inner = object("aLongFieldName", number(), "anotherLongFieldName", number(), "yetAnotherLongFieldName", number());
+            return module("m0", function(inner));
+        },
+                "declare module lib {\n"
+                + "    export function m0(): interface_0;\n"
+                + "}\n"
+                + "interface interface_0 {\n"
+                + "    aLongFieldName: number;\n"
+                + "    anotherLongFieldName: number;\n"
+                + "    yetAnotherLongFieldName: number;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("member with a name that can't be printed", () -> {
+            UnnamedObjectType inner = object("var", function(number()), "f0", number());
+            return module("m0", inner);
+        },
+                "declare module lib {\n"
+                + "    export var m0: interface_1;\n"
+                + "}\n"
+                + "interface interface_1 {\n"
+                + "    f0: number;\n"
+                + "    \"var\": function_0;\n"
+                + "}\n"
+                + "\n"
+                + "interface function_0 {\n"
+                + "    () : number;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("cycle through a function and an object", () -> {
+            UnnamedObjectType object = object("f0", number());
+            FunctionType first = function(object);
+            FunctionType second = function(first, object);
+            object.getDeclarations().put("f1", second);
+            return module("m0", first, "m1", function(second));
+        },
+                "declare module lib {\n"
+                + "    export function m0(): {f0: number, f1: function_0};\n"
+                + "    export function m1(): function_0;\n"
+                + "}\n"
+                + "interface function_0 {\n"
+                + "    (a0: {f0: number, f1: function_0}) : typeof lib.m0;\n"
+                + "}\n"
+                + "\n"));
+
+        result.add(new TestCase("object only too long while the index-type of an array in it is inline", () -> {
+            UnnamedObjectType indexType = object("f0", object(), "f1", number(), "f2", object("f0", object()));
+            return module("m0", function(number(), object("f0", indexType, "f1", number())), "m1", function(number(), array(indexType)));
+        },
+                "declare module lib {\n"
+                + "    export function m0(a0: interface_0): number;\n"
+                + "    export function m1(a0: Array<interface_1>): number;\n"
+                + "}\n"
+                + "interface interface_0 {\n"
+                + "    f0: interface_1;\n"
+                + "    f1: number;\n"
+                + "}\n"
+                + "\n"
+                + "interface interface_1 {\n"
+                + "    f0: {};\n"
+                + "    f1: number;\n"
+                + "    f2: {f0: {}};\n"
+                + "}\n"
+                + "\n",
+                "declare module lib {\n"
+                + "    export function m0(a0: {f0: interface_0, f1: number}): number;\n"
+                + "    export function m1(a0: Array<interface_0>): number;\n"
+                + "}\n"
+                + "interface interface_0 {\n"
+                + "    f0: {};\n"
+                + "    f1: number;\n"
+                + "    f2: {f0: {}};\n"
+                + "}\n"
+                + "\n"));
+
+        return result;
+    }
+
+    private static Map<String, DeclarationType> module(Object... namesAndTypes) {
+        Map<String, DeclarationType> result = new LinkedHashMap<>();
+        result.put("lib", object(namesAndTypes));
+        return result;
+    }
+
+    private static UnnamedObjectType object(Object... namesAndTypes) {
+        Map<String, DeclarationType> declarations = new HashMap<>();
+        for (int i = 0; i < namesAndTypes.length; i += 2) {
+            declarations.put((String) namesAndTypes[i], (DeclarationType) namesAndTypes[i + 1]);
+        }
+        return new UnnamedObjectType(declarations, new HashSet<>());
+    }
+
+    private static FunctionType function(DeclarationType returnType, DeclarationType... arguments) {
+        List<FunctionType.Argument> args = new ArrayList<>();
+        for (int i = 0; i < arguments.length; i++) {
+            args.add(new FunctionType.Argument("a" + i, arguments[i]));
+        }
+        return new FunctionType(returnType, args, new HashSet<>(), new ArrayList<>());
+    }
+
+    private static NamedObjectType array(DeclarationType indexType) {
+        return new NamedObjectType("Array", false, indexType);
+    }
+
+    private static PrimitiveDeclarationType number() {
+        return PrimitiveDeclarationType.Number(new HashSet<>());
+    }
+}
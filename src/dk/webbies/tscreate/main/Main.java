@@ -22,9 +22,17 @@ import dk.webbies.tscreate.jsnap.classes.*;
 import dk.webbies.tscreate.main.patch.*;
 import dk.webbies.tscreate.paser.AST.*;
 import dk.webbies.tscreate.paser.JavaScriptParser;
+import dk.webbies.tscreate.util.BoundedCache;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.util.Util;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -101,6 +109,7 @@ public class Main {
     }
 
     public static Score makeSuperEval(BenchMark benchMark) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
         if (benchMark.declarationPath == null) {
             throw new RuntimeException();
         }
@@ -120,7 +129,7 @@ public class Main {
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, getScript(benchMark)).toTSCreateAST();
 
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         HashMap<Snap.Obj, LibraryClass> libraryClasses = new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract();
@@ -135,13 +144,14 @@ public class Main {
     }
 
     public static Evaluation runTSInfer(BenchMark benchMark) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
         String resultDeclarationFilePath = getResultingDeclarationPath(benchMark);
 
         System.out.println("Analysing " + benchMark.name + " - output: " + resultDeclarationFilePath);
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, getScript(benchMark)).toTSCreateAST();
 
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         HashMap<Snap.Obj, LibraryClass> libraryClasses = new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract();
@@ -151,10 +161,11 @@ public class Main {
         Map<String, DeclarationType> declaration = createDeclaration(benchMark, AST, globalObject, emptySnap, libraryClasses, nativeClasses);
 
         System.out.println("Printing declaration");
-        String printedDeclaration = new DeclarationPrinter(declaration, nativeClasses, benchMark.getOptions()).print();
-        System.out.println(printedDeclaration);
-
-        Util.writeFile(resultDeclarationFilePath, printedDeclaration);
+        // Written to the file and stdout at the same time, without building the declaration as one String.
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new TeeOutputStream(new FileOutputStream(resultDeclarationFilePath), new CloseShieldOutputStream(System.out)), StandardCharsets.UTF_8))) {
+            new DeclarationPrinter(declaration, nativeClasses, benchMark.getOptions()).print(out);
+        }
+        System.out.println();
 
         Evaluation evaluation = null;
         if (benchMark.declarationPath != null) {
@@ -176,19 +187,22 @@ public class Main {
             if (benchMark.getOptions().debugPrint) {
                 evaluationString = "\n\n/*\n" + ((DebugEvaluation)evaluation).debugPrint() + "\n\n*/\n" + evaluationString;
             }
-            Util.writeFile(resultDeclarationFilePath, printedDeclaration + evaluationString);
+            try (Writer out = Files.newBufferedWriter(Paths.get(resultDeclarationFilePath), StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+                out.write(evaluationString);
+            }
             return evaluation;
         }
     }
 
     public static Map<String, DeclarationType> createDeclaration(BenchMark benchMark) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
         String resultDeclarationFilePath = getResultingDeclarationPath(benchMark);
 
         System.out.println("Analysing " + benchMark.name + " - output: " + resultDeclarationFilePath);
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, getScript(benchMark)).toTSCreateAST();
 
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         Map<Snap.Obj, LibraryClass> libraryClasses = new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract();
@@ -226,6 +240,10 @@ public class Main {
         typeAnalysis.getTypeFactory().typeReducer.originals.clear();
         typeAnalysis.getTypeFactory().typeReducer.combinationTypeCache.clear();
 
+        if (benchMark.getOptions().printCacheStatistics) {
+            BoundedCache.printStatistics(System.out);
+        }
+
         return declaration;
     }
 
@@ -247,6 +265,7 @@ public class Main {
     }
 
     static Evaluation getEvaluation(BenchMark benchMark, String generatedDeclarationPath, long timeout) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
 
         System.out.println("Get evaluation of " + benchMark.name + " - from: " + generatedDeclarationPath);
 
@@ -259,7 +278,7 @@ public class Main {
         }
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, getScript(benchMark)).toTSCreateAST();
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         HashMap<Snap.Obj, LibraryClass> libraryClasses = new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract();
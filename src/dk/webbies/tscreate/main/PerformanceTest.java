@@ -2,6 +2,7 @@ package dk.webbies.tscreate.main;
 
 import dk.webbies.tscreate.BenchMark;
 import dk.webbies.tscreate.analysis.declarations.types.DeclarationType;
+import dk.webbies.tscreate.util.BoundedCache;
 import dk.webbies.tscreate.util.Pair;
 
 import java.io.IOException;
@@ -87,6 +88,7 @@ public class PerformanceTest {
                     }
 
                     printResults(results, configs);
+                    BoundedCache.printStatistics(System.out);
 
                     Thread.sleep(5 * 1000);
                 }
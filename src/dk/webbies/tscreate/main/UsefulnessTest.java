@@ -11,6 +11,7 @@ import dk.webbies.tscreate.main.normalizeDec.NormalizeDeclaration;
 import dk.webbies.tscreate.main.patch.PatchFileFactory;
 import dk.webbies.tscreate.paser.AST.FunctionExpression;
 import dk.webbies.tscreate.paser.JavaScriptParser;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.util.Pair;
 import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.types.InterfaceType;
@@ -474,6 +475,7 @@ public class UsefulnessTest {
     }
 
     public static PatchFileFactory.BenchmarkInformation getInfoFromHandwritten(BenchMark benchMark) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
         SpecReader spec = DeclarationParser.getTypeSpecification(benchMark.languageLevel.environment, benchMark.dependencyDeclarations(), benchMark.declarationPath);
 
         Map<Type, String> typeNames = NormalizeDeclaration.getTypeNames(spec, benchMark);
@@ -486,7 +488,7 @@ public class UsefulnessTest {
         global.setDeclaredProperties(global.getDeclaredProperties().entrySet().stream().filter(entry -> !existingKeys.contains(entry.getKey())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, Main.getScript(benchMark)).toTSCreateAST();
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         DeclarationParser.NativeClassesMap nativeClasses = parseNatives(globalObject, benchMark.languageLevel.environment, benchMark.dependencyDeclarations(), new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract(), emptySnap);
@@ -18,6 +18,7 @@ import dk.webbies.tscreate.jsnap.classes.LibraryClass;
 import dk.webbies.tscreate.main.Main;
 import dk.webbies.tscreate.paser.AST.FunctionExpression;
 import dk.webbies.tscreate.paser.JavaScriptParser;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.util.Util;
 
 import java.io.IOException;
@@ -43,6 +44,7 @@ public class NormalizeDeclaration {
             return;
         }
         System.out.println("Normalizing: " + benchMark.name);
+        NodeWorkerPool.configure(benchMark.getOptions());
 
         SpecReader spec = DeclarationParser.getTypeSpecification(benchMark.languageLevel.environment, benchMark.dependencyDeclarations(), benchMark.declarationPath);
 
@@ -56,7 +58,7 @@ public class NormalizeDeclaration {
         global.setDeclaredProperties(global.getDeclaredProperties().entrySet().stream().filter(entry -> !existingKeys.contains(entry.getKey())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
 
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, Main.getScript(benchMark)).toTSCreateAST();
-        Snap.Obj globalObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         DeclarationParser.NativeClassesMap nativeClasses = parseNatives(globalObject, benchMark.languageLevel.environment, benchMark.dependencyDeclarations(), new ClassHierarchyExtractor(globalObject, benchMark.getOptions()).extract(), emptySnap);
@@ -139,6 +141,7 @@ public class NormalizeDeclaration {
 
             DeclarationType combined = new CombinationType(reducer, type).getCombined();
             if (!(combined instanceof InterfaceDeclarationType)) {
+                combined = toNameable(combined);
                 combined.addNames(type.getNames());
                 return combined;
             }
@@ -151,6 +154,7 @@ public class NormalizeDeclaration {
             return;
         }
         for (FunctionType.Argument argument : type.getArguments()) {
+            argument.setType(toNameable(argument.getType()));
             argument.getType().addName(argument.getName());
         }
 
@@ -161,10 +165,22 @@ public class NormalizeDeclaration {
             return;
         }
         for (Map.Entry<String, DeclarationType> entry : type.getDeclarations().entrySet()) {
-            entry.getValue().addName(entry.getKey());
+            DeclarationType value = toNameable(entry.getValue());
+            if (value != entry.getValue()) {
+                entry.setValue(value);
+            }
+            value.addName(entry.getKey());
         }
     }
 
+    // The shared primitives (see PrimitiveDeclarationType.shared) cannot be given names, so a copy is named instead.
+    private static DeclarationType toNameable(DeclarationType type) {
+        if (type instanceof PrimitiveDeclarationType && ((PrimitiveDeclarationType) type).isShared()) {
+            return ((PrimitiveDeclarationType) type).copy();
+        }
+        return type;
+    }
+
     public static Map<Type, String> getTypeNames(SpecReader spec, BenchMark benchMark) {
         SpecReader withoutLib = DeclarationParser.getTypeSpecification(benchMark.languageLevel.environment, benchMark.dependencyDeclarations());
 
@@ -19,6 +19,7 @@ import dk.webbies.tscreate.paser.AST.FunctionExpression;
 import dk.webbies.tscreate.paser.JavaScriptParser;
 import dk.webbies.tscreate.util.LookupDeclarationType;
 import dk.webbies.tscreate.util.LookupType;
+import dk.webbies.tscreate.util.NodeWorkerPool;
 import dk.webbies.tscreate.util.Util;
 
 import java.io.IOException;
@@ -58,6 +59,7 @@ public class PatchFileFactory {
     }
 
     public static PatchFile fromHandwritten(BenchMark oldBench, BenchMark newBench) throws IOException {
+        NodeWorkerPool.configure(newBench.getOptions());
         List<DebugEvaluation.EvaluationStatement> evaluations = CompareVersions.compareHandWritten(oldBench, newBench);
 
         BenchmarkInformation oldInfo = getInfo(oldBench);
@@ -95,9 +97,10 @@ public class PatchFileFactory {
     }
 
     public static BenchmarkInformation getInfo(BenchMark benchMark) throws IOException {
+        NodeWorkerPool.configure(benchMark.getOptions());
         FunctionExpression AST = new JavaScriptParser(benchMark.languageLevel).parse(benchMark.name, Main.getScript(benchMark)).toTSCreateAST();
 
-        Snap.Obj globalObjectJsnapObject = JSNAPUtil.getStateDump(JSNAPUtil.getJsnapRaw(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest), AST);
+        Snap.Obj globalObjectJsnapObject = JSNAPUtil.getJsnap(benchMark.scriptPath, benchMark.getOptions(), benchMark.dependencyScripts(), benchMark.testFiles, benchMark.getOptions().asyncTest, AST);
         Snap.Obj emptySnap = JSNAPUtil.getEmptyJSnap(benchMark.getOptions(), benchMark.dependencyScripts(), AST); // Not empty, just the one without the library we are analyzing.
 
         HashMap<Snap.Obj, LibraryClass> libraryClasses = new ClassHierarchyExtractor(globalObjectJsnapObject, benchMark.getOptions()).extract();
@@ -0,0 +1,142 @@
+package dk.webbies.tscreate.util;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A cache with an optional max size, where the least recently used entry is evicted when the cache is full.
+ * Or, made with weakKeys(), a cache that holds its keys weakly (like a WeakHashMap), where entries are dropped when their key is collected. Those are not counted as evictions.
+ * The cache is synchronized, so it can be shared between threads.
+ *
+ * Every cache has a name, and the hits/misses/evictions of all the caches with the same name are counted together, so the statistics survive the caches themselves (a new TypeReducer is made for every benchmark).
+ * See printStatistics().
+ */
+public final class BoundedCache<K, V> {
+    private static final Map<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final Statistics stats;
+    private final Map<K, V> map;
+    private final Map<K, CompletableFuture<V>> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize The max number of entries, 0 (or less) for no limit.
+     */
+    public BoundedCache(String name, int maxSize) {
+        this(name, maxSize, false);
+    }
+
+    private BoundedCache(String name, int maxSize, boolean weakKeys) {
+        this.maxSize = maxSize;
+        this.stats = statistics.computeIfAbsent(name, Statistics::new);
+        if (weakKeys) {
+            this.map = new WeakHashMap<>();
+            return;
+        }
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (BoundedCache.this.maxSize > 0 && size() > BoundedCache.this.maxSize) {
+                    stats.evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A cache without a max size, that holds its keys weakly, so it doesn't keep the keys (and their values) alive.
+     */
+    public static <K, V> BoundedCache<K, V> weakKeys(String name) {
+        return new BoundedCache<>(name, 0, true);
+    }
+
+    /**
+     * @return The value, or null if it isn't in the cache.
+     */
+    public synchronized V get(K key) {
+        V result = map.get(key);
+        if (result == null) {
+            stats.misses.incrementAndGet();
+        } else {
+            stats.hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the value, or computes it if it isn't in the cache.
+     * If another thread is already computing the value for the same key, this waits for that, instead of computing it again.
+     * The computation must not use this cache.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+        V result = get(key);
+        if (result != null) {
+            return result;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inProgress.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            synchronized (this) {
+                result = map.get(key); // Might have been computed since the first look.
+            }
+            if (result == null) {
+                result = compute.apply(key);
+                put(key, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inProgress.remove(key);
+        }
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public static void printStatistics(PrintStream out) {
+        statistics.values().stream().sorted((one, two) -> one.name.compareTo(two.name)).forEach(stats -> {
+            long hits = stats.hits.get();
+            long misses = stats.misses.get();
+            long total = hits + misses;
+            out.println("Cache " + stats.name + ": " + hits + " hits, " + misses + " misses, " + stats.evictions.get() + " evictions" + (total > 0 ? " (" + Util.toFixed(100.0 * hits / total, 1) + "% hits)" : ""));
+        });
+    }
+
+    public static void resetStatistics() {
+        statistics.clear();
+    }
+
+    private static final class Statistics {
+        private final String name;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+
+        private Statistics(String name) {
+            this.name = name;
+        }
+    }
+}
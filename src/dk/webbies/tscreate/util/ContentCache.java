@@ -0,0 +1,247 @@
+package dk.webbies.tscreate.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of the results of running some (slow) external tool, where an entry is found by a SHA-256 hash of everything the result depends on.
+ * That is: the version of the cache, a description of what is run (command line, options), and the content of every input file (directories are hashed recursively).
+ * So unlike looking at modification times, the cache works on a fresh checkout, and is never stale.
+ *
+ * Entries are gzipped, written atomically (to a temporary file, that is then moved into place), and when the cache gets bigger than its max size, the least recently used entries are deleted.
+ * A file next to an entry, named as the entry plus a suffix (like the binary snapshots), belongs to the entry, and is deleted with it.
+ */
+public final class ContentCache {
+    // Bump this, if the format of the entries, or what the tools produce, changes in a way the hash can't see.
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".gz";
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final long DEFAULT_MAX_SIZE = 20L * 1024 * 1024 * 1024;
+    private static final Pattern ENTRY_PATTERN = Pattern.compile("(.*-[0-9a-f]{64}\\" + SUFFIX + ")(.*)");
+
+    private static final ContentCache defaultCache = new ContentCache(new File("cache"), DEFAULT_MAX_SIZE);
+
+    // The hash of every input file/directory is only computed once per run.
+    private static final Map<File, byte[]> fileHashes = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final long maxSize;
+
+    public ContentCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public static ContentCache getDefault() {
+        return defaultCache;
+    }
+
+    public static final class Entry {
+        private final File file;
+
+        private Entry(File file) {
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public Reader openReader() throws IOException {
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file), 1 << 16), StandardCharsets.UTF_8));
+        }
+
+        public String read() throws IOException {
+            try (Reader reader = openReader()) {
+                StringBuilder builder = new StringBuilder();
+                char[] buffer = new char[1 << 16];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    builder.append(buffer, 0, read);
+                }
+                return builder.toString();
+            }
+        }
+    }
+
+    /**
+     * @param name Only used to make the file-name of the entry readable.
+     * @param description Everything, other than the content of the inputs, the result depends on.
+     * @param inputs The files (or directories) the result depends on.
+     * @param run Creates the result, if it isn't in the cache.
+     */
+    public Entry getOrCreate(String name, String description, List<File> inputs, Supplier<String> run) throws IOException {
+        if (!inputs.stream().allMatch(File::exists)) {
+            throw new RuntimeException("I cannot check against something that doesn't exist.");
+        }
+
+        File file = new File(directory, fileName(name, hash(description, inputs)));
+        Entry entry = new Entry(file);
+
+        if (file.exists() && !Util.alwaysRecreate) {
+            // Marks the entry as recently used.
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+
+        System.out.println("Creating " + file.getPath() + " from scratch.");
+        write(file, run.get());
+        evict(file);
+        return entry;
+    }
+
+    private void write(File file, String content) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        Path tmp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp.toFile()), 1 << 16), StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Deletes the least recently used entries (never the one just written), until the cache fits within the max size.
+    private void evict(File justWritten) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Map<String, Long> entrySizes = new HashMap<>();
+        Map<String, File> entries = new HashMap<>();
+        long totalSize = 0;
+        for (File file : files) {
+            String entryName = getEntryName(file.getName());
+            if (entryName == null) {
+                continue;
+            }
+            totalSize += file.length();
+            entrySizes.merge(entryName, file.length(), Long::sum);
+            if (file.getName().equals(entryName)) {
+                entries.put(entryName, file);
+            }
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        List<File> leastRecentlyUsedFirst = new ArrayList<>(entries.values());
+        leastRecentlyUsedFirst.sort(Comparator.comparingLong(File::lastModified));
+        for (File entry : leastRecentlyUsedFirst) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (entry.equals(justWritten)) {
+                continue;
+            }
+            System.out.println("Evicting " + entry.getPath() + " from the cache");
+            for (File file : files) {
+                if (file.getName().startsWith(entry.getName())) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            totalSize -= entrySizes.get(entry.getName());
+        }
+    }
+
+    // The name of the entry a file in the cache-directory belongs to, or null if it isn't an entry (or belongs to one).
+    private static String getEntryName(String fileName) {
+        Matcher matcher = ENTRY_PATTERN.matcher(fileName);
+        if (!matcher.matches() || fileName.endsWith(".tmp")) {
+            return null;
+        }
+        return matcher.group(1);
+    }
+
+    private static String fileName(String name, String hash) {
+        name = name.replaceAll("[^a-zA-Z0-9.+_-]", "");
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH);
+        }
+        return name + "-" + hash + SUFFIX;
+    }
+
+    private static String hash(String description, List<File> inputs) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, Integer.toString(VERSION));
+        update(digest, description);
+        for (File input : inputs) {
+            update(digest, input.getPath());
+            digest.update(hashFile(input));
+        }
+        return toHex(digest.digest());
+    }
+
+    private static byte[] hashFile(File file) throws IOException {
+        File key = file.getCanonicalFile();
+        byte[] result = fileHashes.get(key);
+        if (result != null) {
+            return result;
+        }
+        MessageDigest digest = newDigest();
+        hashFile(key, "", digest, new byte[1 << 16]);
+        result = digest.digest();
+        fileHashes.put(key, result);
+        return result;
+    }
+
+    private static void hashFile(File file, String relativePath, MessageDigest digest, byte[] buffer) throws IOException {
+        update(digest, relativePath);
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (String child : children) {
+                hashFile(new File(file, child), relativePath + "/" + child, digest, buffer);
+            }
+        } else {
+            try (InputStream in = new FileInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    // The strings are 0 terminated, so "ab" + "c" and "a" + "bc" hash differently.
+    private static void update(MessageDigest digest, String string) {
+        digest.update(string.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
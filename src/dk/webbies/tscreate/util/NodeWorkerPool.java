@@ -0,0 +1,228 @@
+package dk.webbies.tscreate.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import dk.webbies.tscreate.Options;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of long-lived node processes (running lib/node-worker.js), that runs the command-line node tools (ts-type-reader, jsnap --onlyInstrument, tscheck).
+ * Starting node, and loading the TypeScript compiler, is most of the time spent running these tools, and a worker only does that once.
+ *
+ * Only the tools go through the pool, the JSNAP snapshots still get a fresh process, since they run the library being analyzed.
+ * If a worker fails in any way, it is thrown away, and the script is run in a fresh node process instead (with Util.runNodeScript).
+ * The pool is only used when Options.useNodeWorkers is set (see configure), otherwise every script gets a fresh process.
+ */
+public final class NodeWorkerPool {
+    private static final String WORKER_SCRIPT = "lib/node-worker.js";
+
+    private static volatile boolean enabled = false;
+
+    // How many node processes can be running tools at the same time. Must be set before the pool is first used.
+    public static int maxWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // How long a tool waits for a free worker, before it is run in a fresh process instead.
+    private static final long WAIT_FOR_WORKER_SECONDS = 60;
+
+    // How long a worker has to answer a script, before it is considered hung, and the script is run in a fresh process instead.
+    private static final long WORKER_RESPONSE_TIMEOUT_SECONDS = 10 * 60;
+
+    private static final Gson gson = new Gson();
+    private static final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+    private static final List<Worker> allWorkers = new ArrayList<>();
+    private static final AtomicInteger requestCounter = new AtomicInteger();
+    private static Semaphore slots = null; // One permit per worker that may exist, made (from maxWorkers) the first time the pool is used.
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(NodeWorkerPool::shutdown));
+    }
+
+    private NodeWorkerPool() { }
+
+    /**
+     * Uses the pool or not, as set by Options.useNodeWorkers. Called at the start of every run on a benchmark.
+     * There is only one pool per process, so if benchmarks with different options run at the same time, the last one configured decides.
+     */
+    public static void configure(Options options) {
+        enabled = options.useNodeWorkers;
+    }
+
+    /**
+     * Runs a node script, the same way as Util.runNodeScript, and returns what it printed to stdout.
+     */
+    public static String run(String args) throws IOException {
+        if (!enabled || !new File(WORKER_SCRIPT).exists()) {
+            return Util.runNodeScript(args);
+        }
+
+        Semaphore slots = getSlots();
+        try {
+            if (!slots.tryAcquire(WAIT_FOR_WORKER_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("No node worker became free, running the script in a new process instead.");
+                return Util.runNodeScript(args);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        // The permit is given back however the script ends, so a worker that fails never leaves anyone waiting.
+        try {
+            return runWithPermit(args);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private static Semaphore getSlots() {
+        synchronized (allWorkers) {
+            if (slots == null) {
+                slots = new Semaphore(Math.max(1, maxWorkers));
+            }
+            return slots;
+        }
+    }
+
+    private static String runWithPermit(String args) throws IOException {
+        Worker worker = idleWorkers.poll();
+        if (worker == null) {
+            // Every existing worker is either idle, or used by someone holding a permit, so there is room for a new one.
+            try {
+                worker = new Worker();
+            } catch (IOException e) {
+                System.err.println("Could not start a node worker, running the script in a new process instead. " + e);
+                return Util.runNodeScript(args);
+            }
+            synchronized (allWorkers) {
+                allWorkers.add(worker);
+            }
+        }
+
+        JsonObject response;
+        try {
+            response = worker.run(requestCounter.incrementAndGet(), splitArgs(args));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("The node worker failed, running the script in a new process instead. " + e);
+            discard(worker);
+            return Util.runNodeScript(args);
+        }
+
+        if (response.has("error")) {
+            System.err.println("The node worker failed, running the script in a new process instead. " + response.get("error").getAsString());
+            discard(worker);
+            return Util.runNodeScript(args);
+        }
+        idleWorkers.add(worker);
+
+        String stderr = response.get("stderr").getAsString();
+        if (!stderr.isEmpty()) {
+            System.err.println("Error running node script: " + stderr);
+        }
+        return response.get("stdout").getAsString();
+    }
+
+    private static void discard(Worker worker) {
+        synchronized (allWorkers) {
+            allWorkers.remove(worker);
+        }
+        worker.process.destroy();
+        worker.reader.shutdownNow();
+    }
+
+    /**
+     * Stops every worker. New workers are started if the pool is used again.
+     */
+    public static void shutdown() {
+        synchronized (allWorkers) {
+            for (Worker worker : allWorkers) {
+                worker.close();
+            }
+            allWorkers.clear();
+            idleWorkers.clear();
+        }
+    }
+
+    // The same splitting as Runtime.exec, so the scripts get the same arguments as from Util.runNodeScript.
+    private static List<String> splitArgs(String args) {
+        if (args.endsWith("\"")) args = args.replace("\"", "");
+        List<String> result = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(args);
+        while (tokenizer.hasMoreTokens()) {
+            result.add(tokenizer.nextToken());
+        }
+        return result;
+    }
+
+    private static final class Worker {
+        private final Process process;
+        private final Writer in;
+        private final BufferedReader out;
+        private final ExecutorService reader; // Reads the responses, so waiting for one can time out.
+
+        private Worker() throws IOException {
+            this.process = new ProcessBuilder("node", WORKER_SCRIPT).start();
+            this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            this.reader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            // Anything the worker itself prints to stderr (the scripts output is captured by the worker).
+            Thread errGobbler = new Thread(() -> {
+                try (BufferedReader err = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = err.readLine()) != null) {
+                        System.err.println("node worker: " + line);
+                    }
+                } catch (IOException ignored) { }
+            });
+            errGobbler.setDaemon(true);
+            errGobbler.start();
+        }
+
+        private JsonObject run(int id, List<String> args) throws IOException {
+            JsonObject request = new JsonObject();
+            request.addProperty("id", id);
+            request.add("args", gson.toJsonTree(args));
+            in.write(gson.toJson(request));
+            in.write("\n");
+            in.flush();
+
+            String line;
+            try {
+                line = reader.submit(out::readLine).get(WORKER_RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new IOException("The node worker did not answer within " + WORKER_RESPONSE_TIMEOUT_SECONDS + " seconds");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (line == null) {
+                throw new IOException("The node worker exited");
+            }
+            JsonObject response = gson.fromJson(line, JsonObject.class);
+            if (response == null || !response.has("id") || response.get("id").getAsInt() != id) {
+                throw new IOException("Unexpected response from the node worker: " + line);
+            }
+            return response;
+        }
+
+        // Closing stdin makes the worker exit.
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                process.destroy();
+            }
+            reader.shutdownNow();
+        }
+    }
+}
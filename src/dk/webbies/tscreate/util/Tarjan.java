@@ -4,9 +4,15 @@ package dk.webbies.tscreate.util;
 /**
  *     Java Program to Implement Tarjan Algorithm
  *     Copy pasta from: http://www.sanfoundry.com/java-program-tarjan-algorithm/
+ *
+ *     Modified to use an explicit stack instead of recursion (so deep graphs doesn't cause a StackOverflowError).
+ *     An instance can be reused, the stacks are then kept between calls.
  **/
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /** class Tarjan **/
 public class Tarjan<T extends Tarjan.Node<T>> {
@@ -17,30 +23,55 @@ public class Tarjan<T extends Tarjan.Node<T>> {
         public abstract Collection<T> getEdges();
     }
 
+    /** counter used to mark the nodes visited in one traversal, shared by all instances, since the marks are stored in the nodes **/
+    private static final AtomicInteger iterationCounter = new AtomicInteger(1);
+
     /** preorder number counter **/
-    private static int iterationCounter = 1;
     private int preCount;
 
+    // The explicit DFS stack, index i is one frame. Kept between calls to avoid re-allocating them.
+    private final ArrayList<T> frameNodes = new ArrayList<>();
+    private final ArrayList<Iterator<T>> frameEdges = new ArrayList<>();
+    private int[] frameValues = new int[64];
+    private int frames = 0;
+
+    // If a traversal is started while another is running on this instance (e.g. from a mapping function), a fresh instance is used instead.
+    private boolean inUse = false;
+
+    private static int nextIteration() {
+        return iterationCounter.getAndIncrement();
+    }
+
     /**
      * function to get all strongly connected components
      **/
     public List<List<T>> getSCComponents(T graph) {
-        return getSCComponents(Collections.singletonList(graph), iterationCounter++);
+        return getSCComponents(Collections.singletonList(graph));
     }
 
     /**
      * function to get all strongly connected components
      **/
     public List<List<T>> getSCComponents(Collection<T> graph) {
-        return getSCComponents(graph, iterationCounter++);
+        if (inUse) {
+            return new Tarjan<T>().getSCComponents(graph);
+        }
+        inUse = true;
+        try {
+            return getSCComponents(graph, nextIteration());
+        } finally {
+            clearFrames();
+            inUse = false;
+        }
     }
 
     /**
      * function to get all strongly connected components
      **/
     private List<List<T>> getSCComponents(Collection<T> graph, int iteration) {
-        Deque<T> stack = new LinkedList<>();
+        Deque<T> stack = new ArrayDeque<>();
         List<List<T>> sccComp = new ArrayList<>();
+        preCount = 0;
 
         for (T edge : graph) {
             if (edge.visited != iteration) {
@@ -52,7 +83,25 @@ public class Tarjan<T extends Tarjan.Node<T>> {
     }
 
     public List<T> getReachableSet(T graph) {
-        return getReachableSet(graph, iterationCounter++);
+        return getReachableSet(graph, Function.identity(), null);
+    }
+
+    /**
+     * Finds everything reachable from graph (including graph itself), in DFS pre-order.
+     * @param mapFunc applied to every reachable node, to build the result.
+     * @param stopAt if not null, then nodes satisfying this are included in the result, but their edges are not followed (graph itself is always followed).
+     */
+    public <R> List<R> getReachableSet(T graph, Function<? super T, R> mapFunc, Predicate<? super T> stopAt) {
+        if (inUse) {
+            return new Tarjan<T>().getReachableSet(graph, mapFunc, stopAt);
+        }
+        inUse = true;
+        try {
+            return getReachableSet(graph, nextIteration(), mapFunc, stopAt);
+        } finally {
+            clearFrames();
+            inUse = false;
+        }
     }
 
     /*
@@ -61,7 +110,16 @@ public class Tarjan<T extends Tarjan.Node<T>> {
      * The first element is the deepest in the tree (a leaf).
      */
     public List<List<T>> getLevels(Collection<T> elements) {
-        return getLevels(elements, iterationCounter++);
+        if (inUse) {
+            return new Tarjan<T>().getLevels(elements);
+        }
+        inUse = true;
+        try {
+            return getLevels(elements, nextIteration());
+        } finally {
+            clearFrames();
+            inUse = false;
+        }
     }
 
     private List<List<T>> getLevels(Collection<T> elements, int iteration) {
@@ -79,69 +137,129 @@ public class Tarjan<T extends Tarjan.Node<T>> {
         return result;
     }
 
-    private int markLevel(T node, int iteration) {
-        if (node.visited == iteration) {
-            node.low = 0;
-            return node.low;
-        } else {
-            node.visited = iteration;
-            int max = 0;
-            for (T edge : node.getEdges()) {
-                max = Math.max(max, markLevel(edge, iteration));
+    // The frame value is the max level among the children seen so far.
+    private void markLevel(T root, int iteration) {
+        if (root.visited == iteration) {
+            root.low = 0;
+            return;
+        }
+        root.visited = iteration;
+        pushFrame(root, 0);
+        while (frames > 0) {
+            int top = frames - 1;
+            Iterator<T> edges = frameEdges.get(top);
+            if (edges.hasNext()) {
+                T edge = edges.next();
+                if (edge.visited == iteration) {
+                    edge.low = 0;
+                } else {
+                    edge.visited = iteration;
+                    pushFrame(edge, 0);
+                }
+            } else {
+                T node = popFrame();
+                node.low = frameValues[top] + 1;
+                if (frames > 0) {
+                    frameValues[frames - 1] = Math.max(frameValues[frames - 1], node.low);
+                }
             }
-            node.low = max + 1;
-            return node.low;
         }
     }
 
-    private List<T> getReachableSet(T graph, int iteration) {
-        ArrayList<T> result = new ArrayList<>();
-        reachableDfs(graph, iteration, result);
-        return result;
-    }
-
-    private void reachableDfs(T node, int iteration, List<T> result) {
-        if (node.visited != iteration) {
-            node.visited = iteration;
-            result.add(node);
-            for (T edge : node.getEdges()) {
-                reachableDfs(edge, iteration, result);
+    private <R> List<R> getReachableSet(T graph, int iteration, Function<? super T, R> mapFunc, Predicate<? super T> stopAt) {
+        ArrayList<R> result = new ArrayList<>();
+        graph.visited = iteration;
+        result.add(mapFunc.apply(graph));
+        pushFrame(graph, 0);
+        while (frames > 0) {
+            Iterator<T> edges = frameEdges.get(frames - 1);
+            if (edges.hasNext()) {
+                T edge = edges.next();
+                if (edge.visited != iteration) {
+                    edge.visited = iteration;
+                    result.add(mapFunc.apply(edge));
+                    if (stopAt == null || !stopAt.test(edge)) {
+                        pushFrame(edge, 0);
+                    }
+                }
+            } else {
+                popFrame();
             }
         }
+        return result;
     }
 
     /**
      * function dfs
+     * The frame value is the smallest low-link seen from the node so far.
      **/
-    private void dfs(T v, int iteration, Deque<T> stack, List<List<T>> sccComp) {
-        v.low = preCount++;
-        v.visited = iteration;
-        stack.push(v);
-        int min = v.low;
-        for (T edge : v.getEdges()) {
-            if (edge.visited != iteration) {
-                dfs(edge, iteration, stack, sccComp);
+    private void dfs(T root, int iteration, Deque<T> stack, List<List<T>> sccComp) {
+        visit(root, iteration, stack);
+        while (frames > 0) {
+            int top = frames - 1;
+            Iterator<T> edges = frameEdges.get(top);
+            if (edges.hasNext()) {
+                T edge = edges.next();
+                if (edge.visited != iteration) {
+                    visit(edge, iteration, stack);
+                } else if (edge.low < frameValues[top]) {
+                    frameValues[top] = edge.low;
+                }
+                continue;
             }
-            if (edge.low < min) {
-                min = edge.low;
+
+            T v = popFrame();
+            int min = frameValues[top];
+            if (min < v.low) {
+                v.low = min;
+            } else {
+                List<T> component = new ArrayList<>();
+
+                T w;
+                do {
+                    w = stack.pop();
+                    component.add(w);
+                    w.low = Integer.MAX_VALUE;
+                } while (w != v);
+
+                sccComp.add(component);
             }
-        }
 
-        if (min < v.low) {
-            v.low = min;
-            return;
+            // Returning to the parent, which then looks at the low of the child.
+            if (frames > 0 && v.low < frameValues[frames - 1]) {
+                frameValues[frames - 1] = v.low;
+            }
         }
+    }
+
+    private void visit(T v, int iteration, Deque<T> stack) {
+        v.low = preCount++;
+        v.visited = iteration;
+        stack.push(v);
+        pushFrame(v, v.low);
+    }
 
-        List<T> component = new ArrayList<>();
+    private void pushFrame(T node, int value) {
+        if (frames == frameValues.length) {
+            frameValues = Arrays.copyOf(frameValues, frames * 2);
+        }
+        frameNodes.add(node);
+        frameEdges.add(node.getEdges().iterator());
+        frameValues[frames] = value;
+        frames++;
+    }
 
-        T w;
-        do {
-            w = stack.pop();
-            component.add(w);
-            w.low = Integer.MAX_VALUE;
-        } while (w != v);
+    private T popFrame() {
+        frames--;
+        frameEdges.remove(frames);
+        return frameNodes.remove(frames);
+    }
 
-        sccComp.add(component);
+    // If a traversal is aborted by an exception, the frames are left behind.
+    private void clearFrames() {
+        while (frames > 0) {
+            popFrame();
+        }
     }
 
     private static class SimpleNode extends Node<SimpleNode> {
@@ -178,4 +296,4 @@ public class Tarjan<T extends Tarjan.Node<T>> {
         List<List<SimpleNode>> scComponents = t.getLevels(Arrays.asList(node1, node2, node3));
         System.out.println(scComponents);
     }
-}
\ No newline at end of file
+}
@@ -24,7 +24,7 @@ import java.util.stream.StreamSupport;
  * Created by erik1 on 01-09-2015.
  */
 public class Util {
-    private static final boolean alwaysRecreate = false;
+    static final boolean alwaysRecreate = false;
     public static String runNodeScript(String args) throws IOException {
         if (args.endsWith("\"")) args = args.replace("\"", "");
         Process process = Runtime.getRuntime().exec("node " + args);
@@ -47,6 +47,13 @@ public class Util {
         return inputGobbler.getResult();
     }
 
+    /**
+     * Runs one of the command-line node tools (not a script that runs library code), using a node process from the NodeWorkerPool.
+     */
+    public static String runNodeTool(String args) throws IOException {
+        return NodeWorkerPool.run(args);
+    }
+
     public static String removeSuffix(String str, String suffix) {
         assert str.endsWith(suffix);
         return str.substring(0, str.length() - suffix.length());
@@ -108,80 +115,27 @@ public class Util {
     }
 
     public static String getCachedOrRunNode(String cachePath, List<File> checkAgainst, String nodeArgs) throws IOException {
-        return getCachedOrRun(cachePath, checkAgainst, () -> {
+        return getCachedEntryOrRun(cachePath, cachePath + " " + nodeArgs, checkAgainst, () -> {
             try {
-                return Util.runNodeScript(nodeArgs);
+                return Util.runNodeTool(nodeArgs);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
+        }).read();
     }
 
     public static String getCachedOrRun(String cachePath, List<File> checkAgainst, Supplier<String> run) throws IOException {
-        cachePath = cachePath.replaceAll("/", "");
-        cachePath = cachePath.replaceAll(":", "");
-        cachePath = cachePath.replaceAll("\\\\", "");
-
-        if (!checkAgainst.stream().allMatch(File::exists)) {
-            throw new RuntimeException("I cannot check against something that doesn't exist.");
-        }
-
-        File cache = new File("cache/" + cachePath);
-
-        boolean recreate = false;
-        if (!cache.exists()) {
-            recreate = true;
-        } else {
-            long jsnapLastModified = getLastModified(cache);
-            for (File fileToCheckAgainst : checkAgainst) {
-                long jsLastModified = getLastModified(fileToCheckAgainst);
-                if (jsnapLastModified < jsLastModified) {
-                    recreate = true;
-                    break;
-                }
-            }
-
-        }
-
-        //noinspection PointlessBooleanExpression
-        if (recreate || alwaysRecreate) {
-            System.out.println("Creating " + cache.getPath() + " from scratch.");
-            String jsnap = run.get();
-            BufferedWriter writer = new BufferedWriter(new FileWriter(cache));
-            writer.write(jsnap);
-            writer.close();
-            return jsnap;
-        } else {
-            FileReader reader = new FileReader(cache);
-            String result = IOUtils.toString(reader);
-            reader.close();
-            return result;
-        }
+        return getCachedEntryOrRun(cachePath, cachePath, checkAgainst, run).read();
     }
 
-    // http://stackoverflow.com/questions/12249155/how-to-get-the-last-modified-date-and-time-of-a-directory-in-java#answer-12249411
-    private static long getLastModified(File file) {
-        if (file == null) {
-            return 0;
-        }
-        if (!file.exists()) {
-            return 0;
-        }
-        if (!file.isDirectory()) {
-            return file.lastModified();
-        } else {
-            File[] files = file.listFiles();
-            assert files != null;
-            if (files.length == 0) return file.lastModified();
-            Arrays.sort(files, (o1, o2) -> {
-                return Long.valueOf(o2.lastModified()).compareTo(o1.lastModified()); //latest 1st
-            });
-
-            return files[0].lastModified();
-        }
+    /**
+     * Like getCachedOrRun, except that the cache entry is returned instead of its content (so it can be read in whatever way the caller wants).
+     * @param description Everything (except the content of the files in checkAgainst) that the result depends on, see ContentCache.
+     */
+    public static ContentCache.Entry getCachedEntryOrRun(String cachePath, String description, List<File> checkAgainst, Supplier<String> run) throws IOException {
+        return ContentCache.getDefault().getOrCreate(cachePath, description, checkAgainst, run);
     }
 
-
     private static final ExecutorService threadPool = Executors.newCachedThreadPool();
 
     public static void runAll(Runnable... runs) throws Throwable {
@@ -332,7 +286,7 @@ public class Util {
     }
 
     public static String tsCheck(String jsFile, String declaration) throws IOException {
-        return Util.runNodeScript("node_modules/tscheck/tscheck.js " + jsFile + " " + declaration);
+        return Util.runNodeTool("node_modules/tscheck/tscheck.js " + jsFile + " " + declaration);
     }
 
     public static String toFixed(double number, int decimals) {